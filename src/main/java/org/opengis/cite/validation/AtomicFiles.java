@@ -0,0 +1,111 @@
+package org.opengis.cite.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes files atomically: content is written to a temporary file in the same
+ * directory, which then replaces the target file. Readers (including other
+ * processes) never see a partially written file. If the file system does not
+ * support atomic renaming, the temporary file is moved normally.
+ */
+final class AtomicFiles {
+
+    /**
+     * Writes the content of a file to an output stream.
+     */
+    interface Content {
+
+        /**
+         * Writes the content to the given stream.
+         *
+         * @param out
+         *            An output stream; it is closed by the caller.
+         * @throws IOException
+         *             If the content cannot be written.
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Writes a file, replacing it if it exists. The parent directory is
+     * created if necessary.
+     *
+     * @param file
+     *            The target file.
+     * @param content
+     *            The content to write.
+     * @throws IOException
+     *             If the file cannot be written.
+     */
+    static void write(File file, Content content) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        Path tempFile = Files.createTempFile(dir, file.getName(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                content.writeTo(out);
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Writes the given bytes to a file, replacing it if it exists.
+     *
+     * @param file
+     *            The target file.
+     * @param bytes
+     *            The file content.
+     * @throws IOException
+     *             If the file cannot be written.
+     */
+    static void write(File file, final byte[] bytes) throws IOException {
+        write(file, new Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(bytes);
+            }
+        });
+    }
+
+    /**
+     * Copies all bytes from an input stream to a file, replacing it if it
+     * exists. The stream is not closed.
+     *
+     * @param file
+     *            The target file.
+     * @param in
+     *            The input stream to read from.
+     * @throws IOException
+     *             If the stream cannot be read or the file cannot be written.
+     */
+    static void write(File file, final InputStream in) throws IOException {
+        write(file, new Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        });
+    }
+}
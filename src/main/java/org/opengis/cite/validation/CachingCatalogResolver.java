@@ -0,0 +1,395 @@
+package org.opengis.cite.validation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xerces.dom.DOMInputImpl;
+import org.apache.xerces.util.URI.MalformedURIException;
+import org.apache.xerces.util.XMLCatalogResolver;
+import org.apache.xerces.xni.XMLResourceIdentifier;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.w3c.dom.ls.LSInput;
+
+/**
+ * A catalog resolver that memoizes the results of catalog lookups (including
+ * failed ones), since the underlying catalog is searched sequentially and
+ * lookups are serialized. The {@code system} and {@code uri} entries of the
+ * catalog may also be indexed in advance.
+ *
+ * <p>
+ * Remote resources with no matching catalog entry are read from an
+ * {@link HttpSchemaCache} (if one is set) rather than being retrieved by the
+ * parser. The original location is retained as the system identifier so that
+ * relative references are resolved as usual.
+ * </p>
+ *
+ * <p>
+ * The memo is not cleared if the catalog list is changed; call
+ * {@link #clearLookupCache()} in that case.
+ * </p>
+ */
+class CachingCatalogResolver extends XMLCatalogResolver {
+
+    private static final Logger LOGR = Logger.getLogger(CachingCatalogResolver.class.getPackage().getName());
+    private static final String CATALOG_NS = "urn:oasis:names:tc:entity:xmlns:xml:catalog";
+    /** Marks a failed lookup (compared by identity). */
+    private static final String NO_MATCH = new String("");
+    private final ConcurrentMap<String, String> systemIds = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> uris = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> publicIds = new ConcurrentHashMap<String, String>();
+    private volatile HttpSchemaCache httpCache;
+
+    /**
+     * Constructs a resolver with no catalog.
+     */
+    CachingCatalogResolver() {
+    }
+
+    /**
+     * Constructs a resolver that uses the given catalog.
+     *
+     * @param catalog
+     *            An absolute URL specifying the location of an OASIS entity
+     *            catalog; may be null.
+     * @param indexCatalog
+     *            If {@code true}, the {@code system} and {@code uri} entries
+     *            in the catalog are indexed now, so that exact matches are
+     *            found without searching it.
+     */
+    CachingCatalogResolver(URL catalog, boolean indexCatalog) {
+        if (null != catalog) {
+            setCatalogList(new String[] { catalog.toString() });
+            if (indexCatalog) {
+                indexCatalog(catalog);
+            }
+        }
+    }
+
+    /**
+     * Sets the cache of remote resources.
+     *
+     * @param httpCache
+     *            An HttpSchemaCache instance, or null if remote resources are
+     *            retrieved by the parser.
+     */
+    void setHttpCache(HttpSchemaCache httpCache) {
+        this.httpCache = httpCache;
+    }
+
+    /**
+     * Looks up a (schema) URI in the entity catalog by system identifier or
+     * namespace name.
+     *
+     * @param uri
+     *            An absolute URI referring to an XML Schema resource.
+     * @return A String denoting the location of a local copy, or null if no
+     *         matching entry exists.
+     */
+    String lookupSchema(URI uri) {
+        String schemaRef = null;
+        try {
+            schemaRef = lookupSystem(uri.toString());
+            if (null == schemaRef) {
+                schemaRef = lookupURI(uri.toString());
+            }
+        } catch (IOException e) {
+            LOGR.log(Level.WARNING, "Error reading schema catalog. {0}", e.getCause());
+        }
+        return schemaRef;
+    }
+
+    /**
+     * Resolves a system identifier using the catalog; the result is memoized.
+     *
+     * @param systemId
+     *            A system identifier.
+     * @return The location of the mapped resource, or null if there is no
+     *         matching entry.
+     * @throws IOException
+     *             If an error occurs while reading the catalog.
+     */
+    String lookupSystem(String systemId) throws IOException {
+        String result = systemIds.get(systemId);
+        if (null == result) {
+            result = resolveSystem(systemId);
+            systemIds.putIfAbsent(systemId, (null != result) ? result : NO_MATCH);
+        }
+        return (result == NO_MATCH) ? null : result;
+    }
+
+    /**
+     * Resolves a URI reference (such as a namespace name) using the catalog;
+     * the result is memoized.
+     *
+     * @param uri
+     *            A URI reference.
+     * @return The location of the mapped resource, or null if there is no
+     *         matching entry.
+     * @throws IOException
+     *             If an error occurs while reading the catalog.
+     */
+    String lookupURI(String uri) throws IOException {
+        String result = uris.get(uri);
+        if (null == result) {
+            result = resolveURI(uri);
+            uris.putIfAbsent(uri, (null != result) ? result : NO_MATCH);
+        }
+        return (result == NO_MATCH) ? null : result;
+    }
+
+    /**
+     * Resolves a public identifier (and system identifier) using the catalog;
+     * the result is memoized.
+     *
+     * @param publicId
+     *            A public identifier.
+     * @param systemId
+     *            A system identifier.
+     * @return The location of the mapped resource, or null if there is no
+     *         matching entry.
+     * @throws IOException
+     *             If an error occurs while reading the catalog.
+     */
+    String lookupPublic(String publicId, String systemId) throws IOException {
+        String key = publicId + ' ' + systemId;
+        String result = publicIds.get(key);
+        if (null == result) {
+            result = resolvePublic(publicId, systemId);
+            publicIds.putIfAbsent(key, (null != result) ? result : NO_MATCH);
+        }
+        return (result == NO_MATCH) ? null : result;
+    }
+
+    /**
+     * Discards all memoized lookup results (including indexed entries).
+     */
+    void clearLookupCache() {
+        systemIds.clear();
+        uris.clear();
+        publicIds.clear();
+    }
+
+    /**
+     * Returns the number of memoized lookup results.
+     *
+     * @return The number of entries (including failed lookups).
+     */
+    int getLookupCacheSize() {
+        return systemIds.size() + uris.size() + publicIds.size();
+    }
+
+    /**
+     * Resolves a resource using the catalog (by namespace name, then public
+     * or system identifier), in the same manner as the superclass.
+     */
+    @Override
+    public String resolveIdentifier(XMLResourceIdentifier resourceIdentifier) throws IOException, XNIException {
+        String resolvedId = null;
+        String namespace = resourceIdentifier.getNamespace();
+        if (null != namespace) {
+            resolvedId = lookupURI(namespace);
+        }
+        if (null == resolvedId) {
+            String publicId = resourceIdentifier.getPublicId();
+            String systemId = getUseLiteralSystemId() ? resourceIdentifier.getLiteralSystemId()
+                    : resourceIdentifier.getExpandedSystemId();
+            if (null != publicId && null != systemId) {
+                resolvedId = lookupPublic(publicId, systemId);
+            } else if (null != systemId) {
+                resolvedId = lookupSystem(systemId);
+            }
+        }
+        return resolvedId;
+    }
+
+    @Override
+    public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId,
+            String baseURI) {
+        String resolvedId = null;
+        try {
+            if (null != namespaceURI) {
+                resolvedId = lookupURI(namespaceURI);
+            }
+            String expandedId = systemId;
+            if (!getUseLiteralSystemId() && null != baseURI) {
+                try {
+                    expandedId = new org.apache.xerces.util.URI(new org.apache.xerces.util.URI(baseURI), systemId)
+                            .toString();
+                } catch (MalformedURIException e) {
+                    // use system identifier as given
+                }
+            }
+            if (null == resolvedId) {
+                if (null != publicId && null != expandedId) {
+                    resolvedId = lookupPublic(publicId, expandedId);
+                } else if (null != expandedId) {
+                    resolvedId = lookupSystem(expandedId);
+                }
+            }
+        } catch (IOException e) {
+            LOGR.log(Level.FINE, "Error reading catalog", e);
+        }
+        if (null != resolvedId) {
+            return new DOMInputImpl(publicId, resolvedId, baseURI);
+        }
+        URI uri = toRemoteURI(systemId, baseURI);
+        File file = getCachedFile(uri);
+        if (null == file) {
+            return null;
+        }
+        try {
+            return new DOMInputImpl(publicId, uri.toString(), baseURI, new FileInputStream(file), null);
+        } catch (IOException e) {
+            LOGR.log(Level.FINE, "Failed to read cached copy of " + uri, e);
+            return null;
+        }
+    }
+
+    @Override
+    public XMLInputSource resolveEntity(XMLResourceIdentifier resourceIdentifier) throws XNIException, IOException {
+        XMLInputSource input = super.resolveEntity(resourceIdentifier);
+        if (null != input) {
+            return input;
+        }
+        URI uri = toRemoteURI(resourceIdentifier.getLiteralSystemId(), resourceIdentifier.getBaseSystemId());
+        File file = getCachedFile(uri);
+        if (null == file) {
+            return null;
+        }
+        input = new XMLInputSource(resourceIdentifier.getPublicId(), uri.toString(),
+                resourceIdentifier.getBaseSystemId());
+        input.setByteStream(new FileInputStream(file));
+        return input;
+    }
+
+    /**
+     * Adds the {@code system} and {@code uri} entries in the given catalog to
+     * the memo. Entries in other catalogs (referenced by {@code nextCatalog}
+     * or {@code delegate*} entries) are not indexed, nor are rewrite or
+     * suffix entries; such lookups are resolved as usual.
+     *
+     * @param catalog
+     *            The location of an OASIS XML catalog.
+     */
+    private void indexCatalog(URL catalog) {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        Deque<URL> bases = new ArrayDeque<URL>();
+        bases.push(catalog);
+        int count = 0;
+        try (InputStream in = catalog.openStream()) {
+            XMLStreamReader reader = factory.createXMLStreamReader(catalog.toString(), in);
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        bases.pop();
+                        continue;
+                    }
+                    if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    URL base = bases.peek();
+                    String xmlBase = reader.getAttributeValue(XMLConstants.XML_NS_URI, "base");
+                    if (null != xmlBase) {
+                        base = new URL(base, xmlBase);
+                    }
+                    bases.push(base);
+                    if (!CATALOG_NS.equals(reader.getNamespaceURI())) {
+                        continue;
+                    }
+                    String name = reader.getLocalName();
+                    if (name.equals("system")) {
+                        String systemId = reader.getAttributeValue(null, "systemId");
+                        String uri = reader.getAttributeValue(null, "uri");
+                        if (null != systemId && null != uri
+                                && null == systemIds.putIfAbsent(systemId, new URL(base, uri).toString())) {
+                            count++;
+                        }
+                    } else if (name.equals("uri")) {
+                        String uriName = reader.getAttributeValue(null, "name");
+                        String uri = reader.getAttributeValue(null, "uri");
+                        if (null != uriName && null != uri
+                                && null == uris.putIfAbsent(uriName, new URL(base, uri).toString())) {
+                            count++;
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            LOGR.log(Level.WARNING, "Failed to index catalog " + catalog, e);
+            clearLookupCache();
+            return;
+        }
+        LOGR.log(Level.FINE, "Indexed {0} entries in catalog {1}", new Object[] { count, catalog });
+    }
+
+    /**
+     * Returns a local copy of a remote resource from the cache.
+     *
+     * @param uri
+     *            An absolute http(s) URI, or null.
+     * @return The cached copy, or null if there is no cache or the resource
+     *         cannot be retrieved (the parser will report the problem).
+     */
+    private File getCachedFile(URI uri) {
+        HttpSchemaCache cache = httpCache;
+        if (null == cache || null == uri) {
+            return null;
+        }
+        try {
+            return cache.getFile(uri);
+        } catch (IOException e) {
+            LOGR.log(Level.FINE, "Failed to retrieve " + uri, e);
+            return null;
+        }
+    }
+
+    /**
+     * Resolves a system identifier against a base URI.
+     *
+     * @param systemId
+     *            A (possibly relative) system identifier.
+     * @param baseURI
+     *            The base URI; may be null.
+     * @return An absolute http or https URI, or null if the identifier does
+     *         not refer to a remote resource.
+     */
+    static URI toRemoteURI(String systemId, String baseURI) {
+        if (null == systemId) {
+            return null;
+        }
+        URI uri;
+        try {
+            uri = (null != baseURI) ? new URI(baseURI).resolve(new URI(systemId)) : new URI(systemId);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+        String scheme = uri.getScheme();
+        if (null == scheme || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))) {
+            return null;
+        }
+        return uri;
+    }
+}
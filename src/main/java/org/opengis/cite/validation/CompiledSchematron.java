@@ -0,0 +1,732 @@
+package org.opengis.cite.validation;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.dom.DOMSender;
+import net.sf.saxon.event.MessageEmitter;
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.ProxyReceiver;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.Destination;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SAXDestination;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.XsltTransformer;
+import net.sf.saxon.tinytree.TinyBuilder;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * An immutable, compiled representation of an ISO Schematron (ISO 19757-3)
+ * schema. Instances of this class are thread-safe: a single instance may be
+ * used to validate documents on many threads concurrently. Each validation
+ * episode produces its own {@link SchematronResult}.
+ *
+ * @see SchematronValidator
+ */
+public final class CompiledSchematron {
+
+    private static final Logger LOGR = Logger.getLogger(CompiledSchematron.class.getPackage().getName());
+    private final Processor processor;
+    private final XsltExecutable executable;
+
+    /**
+     * Compiles the given Schematron schema with the default phase enabled. If
+     * no default phase is specified, then all patterns are active.
+     *
+     * @param schema
+     *            The Source that represents the schema.
+     * @throws Exception
+     *             If any error occurs while attempting to read or preprocess
+     *             the schema.
+     */
+    public CompiledSchematron(Source schema) throws Exception {
+        this(schema, null, null);
+    }
+
+    /**
+     * Compiles the given Schematron schema and phase (pattern set).
+     *
+     * @param schema
+     *            The Source that represents the schema.
+     * @param phase
+     *            The active phase; if null, the default phase is enabled (all
+     *            patterns are active if no default is specified).
+     * @throws Exception
+     *             If any error occurs while attempting to read or preprocess
+     *             the schema.
+     */
+    public CompiledSchematron(Source schema, String phase) throws Exception {
+        this(schema, phase, null);
+    }
+
+    /**
+     * Compiles the given Schematron schema and phase (pattern set). The
+     * stylesheet generated by preprocessing the schema is obtained from (or
+     * added to) the given cache; preprocessing is skipped if the cache holds a
+     * current entry for the schema.
+     *
+     * @param schema
+     *            The Source that represents the schema.
+     * @param phase
+     *            The active phase; if null, the default phase is enabled (all
+     *            patterns are active if no default is specified).
+     * @param cache
+     *            A persistent cache of compiled schemas; if null, the schema is
+     *            always preprocessed.
+     * @throws Exception
+     *             If any error occurs while attempting to read or preprocess
+     *             the schema.
+     */
+    public CompiledSchematron(Source schema, String phase, SchematronCache cache) throws Exception {
+        if (schema == null) {
+            throw new IllegalArgumentException("No schema Source provided.");
+        }
+        this.processor = SchematronSkeleton.getProcessor();
+        this.executable = (null != cache) ? compileSchema(schema, phase, cache) : compileSchema(schema, phase);
+    }
+
+    /**
+     * Creates a new transformer that will apply the compiled schema. A
+     * transformer is not thread-safe.
+     *
+     * @return A transformer that generates an SVRL report.
+     */
+    XsltTransformer newTransformer() {
+        return executable.load();
+    }
+
+    /**
+     * Creates a new validator for this schema. This is an inexpensive
+     * operation; the compiled schema may be shared by any number of
+     * validators.
+     *
+     * @return A SchematronValidator that is not thread-safe.
+     */
+    public SchematronValidator newValidator() {
+        return new SchematronValidator(this, newTransformer());
+    }
+
+    /**
+     * Validates the specified XML source document. This method may be invoked
+     * concurrently.
+     *
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @return The results of this validation episode.
+     */
+    public SchematronResult validate(Source xmlSource) {
+        return validate(xmlSource, null);
+    }
+
+    /**
+     * Validates the specified XML source document using the given parameter
+     * values. This method may be invoked concurrently.
+     *
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param params
+     *            A {@literal Map<String,String>} object containing parameter
+     *            names and values required to evaluate Schematron rules (may
+     *            be null).
+     * @return The results of this validation episode.
+     */
+    public SchematronResult validate(Source xmlSource, Map<String, String> params) {
+        XsltTransformer transformer = newTransformer();
+        if (null != params) {
+            setParameters(transformer, params);
+        }
+        return validate(transformer, xmlSource);
+    }
+
+    /**
+     * Validates a collection of XML documents in parallel. Up to
+     * <em>parallelism</em> documents are validated at a time using the given
+     * executor; the results are supplied in the order in which validation
+     * completes. Documents are taken from the collection only as results are
+     * consumed, so at most <em>parallelism</em> results are held at any time.
+     *
+     * @param xmlSources
+     *            The XML resources to validate.
+     * @param params
+     *            A {@literal Map<String,String>} object containing parameter
+     *            names and values required to evaluate Schematron rules (may
+     *            be null).
+     * @param executor
+     *            The executor that runs validation tasks (for example, a
+     *            thread pool).
+     * @param parallelism
+     *            The maximum number of documents being validated concurrently
+     *            (a positive integer).
+     * @return An Iterator over the results, which are supplied in completion
+     *         order. The iterator is not thread-safe.
+     */
+    public Iterator<SchematronResult> validateAll(Iterable<? extends Source> xmlSources, Map<String, String> params,
+            Executor executor, int parallelism) {
+        return new SchematronBatch(this, xmlSources, params, executor, parallelism);
+    }
+
+    /**
+     * Validates all XML documents (files with the extension ".xml") in the
+     * given directory in parallel. Subdirectories are not searched.
+     *
+     * @param directory
+     *            A directory containing XML documents.
+     * @param params
+     *            A {@literal Map<String,String>} object containing parameter
+     *            names and values required to evaluate Schematron rules (may
+     *            be null).
+     * @param executor
+     *            The executor that runs validation tasks.
+     * @param parallelism
+     *            The maximum number of documents being validated concurrently
+     *            (a positive integer).
+     * @return An Iterator over the results, which are supplied in completion
+     *         order.
+     * @throws IOException
+     *             If the directory cannot be read.
+     * @see #validateAll(Iterable, Map, Executor, int)
+     */
+    public Iterator<SchematronResult> validateAll(File directory, Map<String, String> params, Executor executor,
+            int parallelism) throws IOException {
+        return validateAll(listDocuments(directory), params, executor, parallelism);
+    }
+
+    /**
+     * Lists the XML documents in a directory.
+     *
+     * @param directory
+     *            A directory.
+     * @return A list of sources for the files with the extension ".xml",
+     *         sorted by name.
+     * @throws IOException
+     *             If the directory does not exist or cannot be read.
+     */
+    static List<Source> listDocuments(File directory) throws IOException {
+        if (null == directory) {
+            throw new IllegalArgumentException("No directory provided.");
+        }
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().toLowerCase(Locale.ROOT).endsWith(".xml");
+            }
+        });
+        if (null == files) {
+            throw new IOException("Not a readable directory: " + directory);
+        }
+        Arrays.sort(files);
+        List<Source> sources = new ArrayList<Source>(files.length);
+        for (File file : files) {
+            sources.add(new StreamSource(file));
+        }
+        return sources;
+    }
+
+    /**
+     * Sets stylesheet parameters on the given transformer.
+     *
+     * @param transformer
+     *            A transformer created by this schema.
+     * @param params
+     *            A {@literal Map<String,String>} object containing parameter
+     *            names and values.
+     */
+    static void setParameters(XsltTransformer transformer, Map<String, String> params) {
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            String paramName = entry.getKey();
+            String paramValue = entry.getValue();
+            transformer.setParameter(new QName(paramName), new XdmAtomicValue(paramValue));
+        }
+    }
+
+    /**
+     * Validates the specified XML source document using the given transformer.
+     *
+     * @param transformer
+     *            A transformer created by this schema; it must not be used
+     *            concurrently.
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @return The results of this validation episode.
+     */
+    SchematronResult validate(XsltTransformer transformer, Source xmlSource) {
+        XdmDestination results = new XdmDestination();
+        RuleViolationCounter counter = new RuleViolationCounter(results);
+        transform(transformer, xmlSource, counter);
+        int totalRuleViolations = counter.getRuleViolationCount();
+        if (LOGR.isLoggable(Level.FINER)) {
+            LOGR.log(Level.FINER, "{0} Schematron rule violations found", totalRuleViolations);
+            writeResultsToTempFile(results);
+        }
+        return new SchematronResult(results.getXdmNode(), totalRuleViolations, xmlSource);
+    }
+
+    /**
+     * Validates the specified XML source document, writing the SVRL report to
+     * the given destination as it is produced. No report is retained in
+     * memory unless the destination builds one. This method may be invoked
+     * concurrently (with different destinations).
+     *
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param params
+     *            A {@literal Map<String,String>} object containing parameter
+     *            names and values required to evaluate Schematron rules (may
+     *            be null).
+     * @param destination
+     *            The destination that receives the SVRL report.
+     * @return The number of violations (failed assertions and successful
+     *         reports).
+     */
+    public int validate(Source xmlSource, Map<String, String> params, Destination destination) {
+        if (null == destination) {
+            throw new IllegalArgumentException("No destination provided.");
+        }
+        XsltTransformer transformer = newTransformer();
+        if (null != params) {
+            setParameters(transformer, params);
+        }
+        return validate(transformer, xmlSource, destination);
+    }
+
+    /**
+     * Validates the specified XML source document, writing the results to the
+     * given output stream. The results are represented either as an SVRL
+     * report or as plain text. The stream is not closed. This method may be
+     * invoked concurrently (with different output streams).
+     *
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param params
+     *            A {@literal Map<String,String>} object containing parameter
+     *            names and values required to evaluate Schematron rules (may
+     *            be null).
+     * @param out
+     *            The output stream to which the results are written.
+     * @param svrlReport
+     *            Produce an SVRL (XML) report; if false, the results are in
+     *            plain text.
+     * @return The number of violations (failed assertions and successful
+     *         reports).
+     */
+    public int validate(Source xmlSource, Map<String, String> params, OutputStream out, boolean svrlReport) {
+        return validate(xmlSource, params, newStreamDestination(out, svrlReport));
+    }
+
+    /**
+     * Validates the specified XML source document, reporting the SVRL results
+     * as a sequence of SAX events. This method may be invoked concurrently
+     * (with different content handlers).
+     *
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param params
+     *            A {@literal Map<String,String>} object containing parameter
+     *            names and values required to evaluate Schematron rules (may
+     *            be null).
+     * @param handler
+     *            The ContentHandler that receives the SVRL report.
+     * @return The number of violations (failed assertions and successful
+     *         reports).
+     */
+    public int validate(Source xmlSource, Map<String, String> params, ContentHandler handler) {
+        if (null == handler) {
+            throw new IllegalArgumentException("No ContentHandler provided.");
+        }
+        return validate(xmlSource, params, new SAXDestination(handler));
+    }
+
+    /**
+     * Validates the specified XML source document using the given transformer,
+     * writing the SVRL report to the given destination.
+     *
+     * @param transformer
+     *            A transformer created by this schema; it must not be used
+     *            concurrently.
+     * @param xmlSource
+     *            The XML resource to validate.
+     * @param destination
+     *            The destination that receives the SVRL report.
+     * @return The number of violations (failed assertions and successful
+     *         reports).
+     */
+    int validate(XsltTransformer transformer, Source xmlSource, Destination destination) {
+        RuleViolationCounter counter = new RuleViolationCounter(destination);
+        transform(transformer, xmlSource, counter);
+        return counter.getRuleViolationCount();
+    }
+
+    /**
+     * Creates a destination that serializes the validation results to an
+     * output stream, either as an SVRL report or as plain text.
+     *
+     * @param out
+     *            The output stream to which the results are written.
+     * @param svrlReport
+     *            Produce an SVRL (XML) report; if false, the results are in
+     *            plain text.
+     * @return A Destination that is not thread-safe.
+     */
+    static Destination newStreamDestination(OutputStream out, boolean svrlReport) {
+        if (null == out) {
+            throw new IllegalArgumentException("No output stream provided.");
+        }
+        if (!svrlReport) {
+            return SchematronResult.newTextReportTransformer(out);
+        }
+        Serializer serializer = new Serializer();
+        serializer.setOutputStream(out);
+        return serializer;
+    }
+
+    /**
+     * Counts the rule violations in the specified XML source document without
+     * building an SVRL report. This method may be invoked concurrently.
+     *
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param params
+     *            A {@literal Map<String,String>} object containing parameter
+     *            names and values required to evaluate Schematron rules (may
+     *            be null).
+     * @return The number of violations (failed assertions and successful
+     *         reports).
+     */
+    public int countRuleViolations(Source xmlSource, Map<String, String> params) {
+        XsltTransformer transformer = newTransformer();
+        if (null != params) {
+            setParameters(transformer, params);
+        }
+        return countRuleViolations(transformer, xmlSource);
+    }
+
+    /**
+     * Counts the rule violations in the specified XML source document using
+     * the given transformer. No SVRL report is built.
+     *
+     * @param transformer
+     *            A transformer created by this schema; it must not be used
+     *            concurrently.
+     * @param xmlSource
+     *            The XML resource to validate.
+     * @return The number of violations (failed assertions and successful
+     *         reports).
+     */
+    int countRuleViolations(XsltTransformer transformer, Source xmlSource) {
+        RuleViolationCounter counter = new RuleViolationCounter(null);
+        transform(transformer, xmlSource, counter);
+        return counter.getRuleViolationCount();
+    }
+
+    /**
+     * Summarizes the rule violations in the specified XML source document
+     * without building an SVRL report. Violations are tallied per pattern,
+     * rule, and assertion. This method may be invoked concurrently.
+     *
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param params
+     *            A {@literal Map<String,String>} object containing parameter
+     *            names and values required to evaluate Schematron rules (may
+     *            be null).
+     * @param failFast
+     *            If true, validation is terminated as soon as an assertion
+     *            fails.
+     * @return A summary of the validation results.
+     */
+    public SchematronSummary summarize(Source xmlSource, Map<String, String> params, boolean failFast) {
+        XsltTransformer transformer = newTransformer();
+        if (null != params) {
+            setParameters(transformer, params);
+        }
+        return summarize(transformer, xmlSource, failFast);
+    }
+
+    /**
+     * Summarizes the rule violations in the specified XML source document
+     * using the given transformer. No SVRL report is built.
+     *
+     * @param transformer
+     *            A transformer created by this schema; it must not be used
+     *            concurrently.
+     * @param xmlSource
+     *            The XML resource to validate.
+     * @param failFast
+     *            If true, validation is terminated as soon as an assertion
+     *            fails.
+     * @return A summary of the validation results.
+     */
+    SchematronSummary summarize(XsltTransformer transformer, Source xmlSource, boolean failFast) {
+        RuleViolationCounter counter = new RuleViolationCounter(null, true, failFast);
+        transform(transformer, xmlSource, counter);
+        return counter.getSummary();
+    }
+
+    /**
+     * Applies the compiled schema to an XML source document.
+     *
+     * @param transformer
+     *            A transformer created by this schema.
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param counter
+     *            The destination that receives the SVRL report.
+     */
+    private void transform(XsltTransformer transformer, Source xmlSource, RuleViolationCounter counter) {
+        if (xmlSource == null) {
+            throw new IllegalArgumentException("Nothing to validate.");
+        }
+        try {
+            if (DOMSource.class.isInstance(xmlSource)) {
+                // Saxon XsltTransformer will reject DOMSource wrapping an Element
+                Node node = DOMSource.class.cast(xmlSource).getNode();
+                if (node.getNodeType() == Node.ELEMENT_NODE) {
+                    xmlSource = buildDocument((Element) node, xmlSource.getSystemId());
+                }
+            }
+            transformer.setSource(xmlSource);
+            transformer.setDestination(counter);
+            if (counter.isFailFast()) {
+                // early termination is expected: do not report it as an error
+                Controller controller = transformer.getUnderlyingController();
+                ErrorListener listener = controller.getErrorListener();
+                controller.setErrorListener(counter.newErrorListener(listener));
+                try {
+                    transformer.transform();
+                } finally {
+                    controller.setErrorListener(listener);
+                }
+            } else {
+                transformer.transform();
+            }
+        } catch (SaxonApiException e1) {
+            if (!counter.isTerminated()) {
+                LOGR.warning(e1.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates an immutable representation of a compiled stylesheet that will
+     * generate an SVRL representation of the validation results when run
+     * against an instance document.
+     *
+     * @param schema
+     *            A Source to read a Schematron schema.
+     * @param phase
+     *            The name of the active phase; if not specified, the default
+     *            phase will be used (all patterns are active if no default is
+     *            specified).
+     * @return A compiled stylesheet ready for execution.
+     * @throws Exception
+     *             If the schema cannot be compiled for any reason.
+     */
+    final XsltExecutable compileSchema(Source schema, String phase) throws Exception {
+        XdmDestination chainResult = new XdmDestination();
+        preprocessSchema(schema, phase, chainResult);
+        XsltExecutable compiledStylesheet = SchematronSkeleton.newXsltCompiler().compile(chainResult.getXdmNode().asSource());
+        return compiledStylesheet;
+    }
+
+    /**
+     * Creates an immutable representation of a compiled stylesheet using the
+     * given cache. If the cache does not contain a current entry for the
+     * schema, the generated stylesheet is added to it. A schema that cannot be
+     * buffered (i.e. it is not read from a StreamSource) is not cached.
+     *
+     * @param schema
+     *            A Source to read a Schematron schema.
+     * @param phase
+     *            The name of the active phase; if not specified, the default
+     *            phase will be used (all patterns are active if no default is
+     *            specified).
+     * @param cache
+     *            A persistent cache of compiled schemas.
+     * @return A compiled stylesheet ready for execution.
+     * @throws Exception
+     *             If the schema cannot be compiled for any reason.
+     */
+    final XsltExecutable compileSchema(Source schema, String phase, SchematronCache cache) throws Exception {
+        SchematronCache.SchemaContent content = SchematronCache.readSchema(schema);
+        if (null == content) {
+            LOGR.log(Level.FINE, "Schema cannot be cached: {0}", schema.getClass().getName());
+            return compileSchema(schema, phase);
+        }
+        String key = cache.createKey(content, phase);
+        Source stylesheet = cache.lookup(key, content.systemId);
+        if (null == stylesheet) {
+            ByteArrayOutputStream xslt = new ByteArrayOutputStream();
+            Serializer serializer = new Serializer();
+            serializer.setOutputStream(xslt);
+            Collection<String> dependencies = preprocessSchema(content.toSource(), phase, serializer);
+            try {
+                cache.store(key, xslt.toByteArray(), dependencies);
+            } catch (IOException e) {
+                LOGR.log(Level.WARNING, "Failed to cache compiled schema.", e);
+            }
+            stylesheet = new StreamSource(new ByteArrayInputStream(xslt.toByteArray()), content.systemId);
+        } else {
+            LOGR.log(Level.FINE, "Found cached schema {0}", key);
+        }
+        return SchematronSkeleton.newXsltCompiler().compile(stylesheet);
+    }
+
+    /**
+     * Runs the preprocessing pipeline that generates an SVRL-producing
+     * stylesheet from a Schematron schema. The (shared) skeleton stylesheets
+     * are applied in turn; any messages they emit are reported if the schema
+     * cannot be processed.
+     *
+     * @param schema
+     *            A Source to read a Schematron schema.
+     * @param phase
+     *            The name of the active phase (may be null).
+     * @param destination
+     *            The destination that receives the generated stylesheet.
+     * @return A collection of absolute URIs referring to the included
+     *         resources.
+     * @throws Exception
+     *             If the schema cannot be preprocessed for any reason.
+     */
+    private Collection<String> preprocessSchema(Source schema, String phase, Destination destination)
+            throws Exception {
+        // Set up pre-processing chain to enable:
+        // 1. Inclusions
+        // 2. Abstract patterns
+        // 3. SVRL report
+        XsltTransformer stage1Transformer = SchematronSkeleton.getIncludeStylesheet().load();
+        XsltTransformer stage2Transformer = SchematronSkeleton.getAbstractExpandStylesheet().load();
+        XsltTransformer stage3Transformer = SchematronSkeleton.getSvrlStylesheet().load();
+        Controller stage1Controller = stage1Transformer.getUnderlyingController();
+        URIResolver uriResolver = stage1Controller.getURIResolver();
+        SchematronCache.DependencyRecorder recorder = new SchematronCache.DependencyRecorder(
+                (null != uriResolver) ? uriResolver : stage1Controller.getStandardURIResolver());
+        stage1Controller.setURIResolver(recorder);
+        stage1Transformer.setSource(schema);
+        stage1Transformer.setDestination(stage2Transformer);
+        stage2Transformer.setDestination(stage3Transformer);
+        stage3Transformer.setDestination(destination);
+        if (null != phase && !phase.isEmpty()) {
+            stage3Transformer.setParameter(new QName("phase"), new XdmAtomicValue(phase));
+        }
+        // capture messages that would be written to System.err by default
+        StringWriter messages = new StringWriter();
+        for (XsltTransformer transformer : Arrays.asList(stage1Transformer, stage2Transformer, stage3Transformer)) {
+            MessageEmitter emitter = new MessageEmitter();
+            emitter.setWriter(messages);
+            transformer.getUnderlyingController().setMessageEmitter(emitter);
+        }
+        try {
+            stage1Transformer.transform();
+        } catch (SaxonApiException e) {
+            throw new Exception(messages.toString() + e.getMessage(), e.getCause());
+        }
+        return recorder.getDependencies();
+    }
+
+    private void writeResultsToTempFile(XdmDestination xdmResult) {
+        File temp = null;
+        try {
+            temp = File.createTempFile("SchematronValidator-dump-", ".xml");
+            BufferedWriter out = new BufferedWriter(new FileWriter(temp));
+            out.write(xdmResult.getXdmNode().toString());
+            out.close();
+        } catch (IOException e) {
+            LOGR.warning(e.getMessage());
+        }
+        if (temp.exists()) {
+            LOGR.log(Level.FINER, "Dumped Schematron results to {0}", temp.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Builds a document (in the Saxon tiny tree representation) with a copy of
+     * the given Element as the document element. The DOM subtree is streamed
+     * directly into the tree that is used for validation; the source element
+     * is not altered. In-scope namespace declarations inherited from ancestor
+     * elements are retained.
+     *
+     * @param elem
+     *            An Element node.
+     * @param systemId
+     *            The system identifier (base URI) of the new document; may be
+     *            null.
+     * @return A document node.
+     * @throws SaxonApiException
+     *             If the element cannot be copied.
+     */
+    NodeInfo buildDocument(Element elem, String systemId) throws SaxonApiException {
+        PipelineConfiguration pipe = processor.getUnderlyingConfiguration().makePipelineConfiguration();
+        TinyBuilder builder = new TinyBuilder();
+        builder.setPipelineConfiguration(pipe);
+        // DOMSender does not emit document events when it starts at an element
+        ProxyReceiver envelope = new ProxyReceiver() {
+            @Override
+            public void open() throws XPathException {
+                super.open();
+                startDocument(0);
+            }
+
+            @Override
+            public void close() throws XPathException {
+                endDocument();
+                super.close();
+            }
+        };
+        envelope.setUnderlyingReceiver(builder);
+        DOMSender sender = new DOMSender();
+        sender.setPipelineConfiguration(pipe);
+        sender.setReceiver(envelope);
+        sender.setStartNode(elem);
+        sender.setSystemId(systemId);
+        try {
+            sender.send();
+        } catch (XPathException e) {
+            throw new SaxonApiException(e);
+        }
+        return builder.getCurrentRoot();
+    }
+}
@@ -0,0 +1,46 @@
+package org.opengis.cite.validation;
+
+import javax.xml.validation.Schema;
+
+/**
+ * A compiled W3C XML Schema together with the diagnostics reported while
+ * compiling it.
+ *
+ * @see XmlSchemaCache
+ * @see XmlSchemaCompiler#compileXmlSchemas(java.util.Map)
+ */
+public final class CompiledXmlSchema {
+
+    private final Schema schema;
+    private final ValidationErrorHandler errorHandler;
+
+    CompiledXmlSchema(Schema schema, ValidationErrorHandler errorHandler) {
+        this.schema = schema;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Returns the compiled schema.
+     *
+     * @return A thread-safe, immutable Schema object, or null if the schema
+     *         could not be compiled.
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the errors reported while compiling the schema. The handler is
+     * shared by all users of this object and must not be modified.
+     *
+     * @return A ValidationErrorHandler containing compilation errors, if any.
+     */
+    public ValidationErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledXmlSchema{schema=" + schema + ", errors=" + errorHandler.getErrorCount() + '}';
+    }
+}
@@ -0,0 +1,146 @@
+package org.opengis.cite.validation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A thread-safe validator for a compiled RELAX NG (ISO 19757-2) schema. A
+ * single instance may be shared by any number of threads; each validation
+ * episode reports to its own {@link ValidationErrorHandler}.
+ *
+ * <p>
+ * The underlying (non-thread-safe) validators are pooled. At most
+ * <em>poolSize</em> validators are created; if all of them are in use, a
+ * caller waits until one is returned to the pool. (DOM sources are validated
+ * without a pooled validator.)
+ * </p>
+ *
+ * @see RelaxNGSchemaCache
+ */
+public final class ConcurrentRelaxNGValidator {
+
+    private final Schema schema;
+    private final BlockingQueue<Validator> idleValidators;
+    private final Semaphore permits;
+    private final AtomicInteger validatorCount = new AtomicInteger();
+
+    /**
+     * Constructs a validator that uses as many pooled validators as there are
+     * available processors.
+     *
+     * @param rngSchema
+     *            An immutable Schema object representing a RELAX NG grammar.
+     */
+    public ConcurrentRelaxNGValidator(Schema rngSchema) {
+        this(rngSchema, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a validator that uses at most the given number of pooled
+     * validators.
+     *
+     * @param rngSchema
+     *            An immutable Schema object representing a RELAX NG grammar.
+     * @param poolSize
+     *            The maximum number of validators (a positive integer); this
+     *            limits the number of concurrent validation episodes.
+     */
+    public ConcurrentRelaxNGValidator(Schema rngSchema, int poolSize) {
+        if (null == rngSchema) {
+            throw new IllegalArgumentException("No schema supplied.");
+        }
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be a positive integer: " + poolSize);
+        }
+        this.schema = rngSchema;
+        this.idleValidators = new ArrayBlockingQueue<Validator>(poolSize);
+        this.permits = new Semaphore(poolSize);
+    }
+
+    /**
+     * Returns the schema known to this validator.
+     *
+     * @return An immutable Schema object.
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Validates the given XML resource against the schema known to this
+     * validator. This method may be invoked concurrently; it blocks while
+     * all pooled validators are in use.
+     *
+     * @param source
+     *            The Source to be read. It must not be null.
+     * @return A ValidationErrorHandler containing the constraint violations
+     *         detected in this validation episode.
+     * @throws SAXException
+     *             if a fatal error occurs while parsing the source.
+     * @throws IOException
+     *             if an error occurs while reading the source, or if the
+     *             thread is interrupted while waiting for a validator.
+     */
+    public ValidationErrorHandler validate(Source source) throws SAXException, IOException {
+        if (null == source) {
+            throw new NullPointerException("source is null.");
+        }
+        ValidationErrorHandler errHandler = new ValidationErrorHandler();
+        if (DOMSource.class.isInstance(source)) {
+            RelaxNGValidator.validate(schema, (DOMSource) source, errHandler);
+            return errHandler;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a validator.");
+        }
+        try {
+            Validator validator = idleValidators.poll();
+            if (null == validator) {
+                validator = schema.newValidator();
+                validatorCount.incrementAndGet();
+            }
+            try {
+                validator.setErrorHandler(errHandler);
+                validator.validate(source);
+            } finally {
+                validator.reset();
+                idleValidators.offer(validator);
+            }
+        } finally {
+            permits.release();
+        }
+        return errHandler;
+    }
+
+    /**
+     * Returns the number of idle validators.
+     *
+     * @return The number of validators available for reuse.
+     */
+    int getIdleCount() {
+        return idleValidators.size();
+    }
+
+    /**
+     * Returns the number of validators created by this instance.
+     *
+     * @return The number of pooled validators.
+     */
+    int getValidatorCount() {
+        return validatorCount.get();
+    }
+}
@@ -0,0 +1,402 @@
+package org.opengis.cite.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A thread-safe, on-disk cache of remote schema resources. Each resource is
+ * stored under a name derived from the SHA-256 digest of its URI, along with
+ * a small metadata file that records its entity tag, last-modification time
+ * and expiry time.
+ *
+ * <p>
+ * A cached copy is used without contacting the server until it expires. The
+ * lifetime of a copy is given by the {@code max-age} directive of the
+ * Cache-Control response header if present (a {@code no-cache} or
+ * {@code no-store} directive means it must always be revalidated); otherwise
+ * the default maximum age of the cache applies. An expired copy is revalidated
+ * with a conditional request ({@code If-None-Match}, {@code If-Modified-Since});
+ * if the server cannot be reached the stale copy is used.
+ * </p>
+ *
+ * <p>
+ * Any number of {@link XmlSchemaCompiler} instances may share a cache (even
+ * across processes, since entries are replaced atomically).
+ * </p>
+ *
+ * @see XmlSchemaCompiler#setHttpCache(HttpSchemaCache)
+ */
+public final class HttpSchemaCache {
+
+    private static final Logger LOGR = Logger.getLogger(HttpSchemaCache.class.getPackage().getName());
+    private static final Pattern MAX_AGE = Pattern.compile("max-age\\s*=\\s*\"?(\\d+)\"?");
+    private static final String URI_KEY = "uri";
+    private static final String ETAG_KEY = "etag";
+    private static final String LAST_MODIFIED_KEY = "lastModified";
+    private static final String EXPIRES_KEY = "expires";
+    private final File directory;
+    private final long maxAge;
+    private static final int LOCK_STRIPES = 64;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong revalidationCount = new AtomicLong();
+    private final AtomicLong downloadCount = new AtomicLong();
+    private volatile int connectTimeout = XmlSchemaCompiler.DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = XmlSchemaCompiler.DEFAULT_READ_TIMEOUT;
+
+    private static HttpSchemaCache sharedCache;
+
+    /**
+     * Returns a cache that is shared within the JVM. It is located in the
+     * user's cache directory (<code>${user.home}/.cache/schema-utils</code>),
+     * which is created with owner-only permissions if necessary, and
+     * revalidates a cached copy whenever it is requested (unless the server
+     * specifies a maximum age).
+     *
+     * @return A shared HttpSchemaCache instance.
+     * @throws IllegalStateException
+     *             If the directory cannot be created, is owned by another user,
+     *             or is writable by other users.
+     */
+    public static synchronized HttpSchemaCache getSharedCache() {
+        if (null == sharedCache) {
+            File dir = new File(new File(System.getProperty("user.home"), ".cache"), "schema-utils");
+            try {
+                createPrivateDirectory(dir.toPath());
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot use shared cache directory " + dir, e);
+            }
+            sharedCache = new HttpSchemaCache(dir, 0, TimeUnit.SECONDS);
+        }
+        return sharedCache;
+    }
+
+    /**
+     * Creates a directory that only the current user can access, or checks
+     * that an existing directory is owned by the current user and is not
+     * writable by anyone else. The current user is taken to be the owner of a
+     * file created in the directory. Permissions are only checked on file
+     * systems that support POSIX file attributes.
+     *
+     * @param dir
+     *            The directory path.
+     * @throws IOException
+     *             If the directory cannot be created or is not private.
+     */
+    static void createPrivateDirectory(Path dir) throws IOException {
+        boolean posix = dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            if (posix) {
+                Files.createDirectories(dir,
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(dir);
+            }
+        }
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        // the owner of a new file is the current user (even if the user name
+        // cannot be looked up)
+        Path probe = Files.createTempFile(dir, "owner", ".tmp");
+        UserPrincipal user;
+        try {
+            user = Files.getOwner(probe);
+        } finally {
+            Files.delete(probe);
+        }
+        UserPrincipal owner = Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS);
+        if (!owner.equals(user)) {
+            throw new IOException("Directory is owned by another user (" + owner.getName() + "): " + dir);
+        }
+        if (posix) {
+            Set<PosixFilePermission> perms = Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS);
+            if (perms.contains(PosixFilePermission.GROUP_WRITE) || perms.contains(PosixFilePermission.OTHERS_WRITE)) {
+                throw new IOException("Directory is writable by other users: " + dir);
+            }
+        }
+    }
+
+    /**
+     * Constructs a cache in the given directory, which is created if it does
+     * not exist.
+     *
+     * @param directory
+     *            The cache directory.
+     * @param maxAge
+     *            The length of time a cached copy is considered fresh if the
+     *            server does not specify a maximum age (a non-negative value).
+     * @param unit
+     *            The time unit of the maxAge argument.
+     */
+    public HttpSchemaCache(File directory, long maxAge, TimeUnit unit) {
+        if (null == directory) {
+            throw new IllegalArgumentException("No cache directory supplied.");
+        }
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Maximum age must not be negative: " + maxAge);
+        }
+        this.directory = directory;
+        this.maxAge = unit.toMillis(maxAge);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the cache directory.
+     *
+     * @return A File object denoting a directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the timeouts used when retrieving or revalidating a resource. The
+     * defaults are 5 s (connect) and 30 s (read); a value of zero means an
+     * infinite timeout.
+     *
+     * @param connectTimeout
+     *            The connect timeout (ms).
+     * @param readTimeout
+     *            The read timeout (ms).
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        if (connectTimeout < 0 || readTimeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative: " + Math.min(connectTimeout, readTimeout));
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Returns a local copy of the resource at the given URI, retrieving or
+     * revalidating it if necessary. If a communications link cannot be
+     * established, or no data can be read, within the configured timeouts, a
+     * {@code java.net.SocketTimeoutException} is raised (unless a stale copy
+     * is available).
+     *
+     * @param uri
+     *            An absolute URI reference.
+     * @return A File object containing the referenced entity.
+     * @throws IOException
+     *             If the resource cannot be retrieved and no copy is cached.
+     */
+    public File getFile(URI uri) throws IOException {
+        if ((null == uri) || !uri.isAbsolute()) {
+            throw new IllegalArgumentException("Not an absolute URI: " + uri);
+        }
+        String name = digest(uri.toString());
+        synchronized (lockFor(name)) {
+            File entity = new File(directory, name + ".xsd");
+            File metadataFile = new File(directory, name + ".properties");
+            Properties metadata = readMetadata(metadataFile);
+            if (entity.isFile() && uri.toString().equals(metadata.getProperty(URI_KEY))) {
+                if (System.currentTimeMillis() < Long.parseLong(metadata.getProperty(EXPIRES_KEY, "0"))) {
+                    hitCount.incrementAndGet();
+                    return entity;
+                }
+            } else {
+                metadata.clear();
+            }
+            URLConnection conn = XmlSchemaCompiler.openConnection(uri, connectTimeout, readTimeout);
+            if (!metadata.isEmpty() && conn instanceof HttpURLConnection) {
+                String etag = metadata.getProperty(ETAG_KEY);
+                if (null != etag) {
+                    conn.setRequestProperty("If-None-Match", etag);
+                }
+                conn.setIfModifiedSince(Long.parseLong(metadata.getProperty(LAST_MODIFIED_KEY, "0")));
+            }
+            try {
+                if (conn instanceof HttpURLConnection
+                        && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED
+                        && !metadata.isEmpty()) {
+                    revalidationCount.incrementAndGet();
+                    metadata.setProperty(EXPIRES_KEY, Long.toString(getExpiryTime(conn)));
+                    writeMetadata(metadataFile, metadata);
+                    return entity;
+                }
+                LOGR.log(Level.FINE, "Retrieving schema from {0}", uri);
+                try (InputStream in = conn.getInputStream()) {
+                    AtomicFiles.write(entity, in);
+                }
+                downloadCount.incrementAndGet();
+                metadata.clear();
+                metadata.setProperty(URI_KEY, uri.toString());
+                String etag = conn.getHeaderField("ETag");
+                if (null != etag) {
+                    metadata.setProperty(ETAG_KEY, etag);
+                }
+                metadata.setProperty(LAST_MODIFIED_KEY, Long.toString(conn.getLastModified()));
+                metadata.setProperty(EXPIRES_KEY, Long.toString(getExpiryTime(conn)));
+                writeMetadata(metadataFile, metadata);
+                return entity;
+            } catch (IOException e) {
+                if (metadata.isEmpty()) {
+                    throw e;
+                }
+                LOGR.log(Level.WARNING, "Using stale copy of {0}: {1}", new Object[] { uri, e.getMessage() });
+                return entity;
+            } finally {
+                if (conn instanceof HttpURLConnection) {
+                    ((HttpURLConnection) conn).disconnect();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the cached copy of the resource at the given URI, if any.
+     *
+     * @param uri
+     *            An absolute URI reference.
+     * @throws IOException
+     *             If a cached file cannot be deleted.
+     */
+    public void remove(URI uri) throws IOException {
+        String name = digest(uri.toString());
+        synchronized (lockFor(name)) {
+            Files.deleteIfExists(new File(directory, name + ".properties").toPath());
+            Files.deleteIfExists(new File(directory, name + ".xsd").toPath());
+        }
+    }
+
+    /**
+     * Returns the lock that guards the cache entry with the given name. A
+     * fixed number of locks is shared by all entries, so that no state is
+     * retained for each resource.
+     */
+    private Object lockFor(String name) {
+        return locks[(name.hashCode() & Integer.MAX_VALUE) % locks.length];
+    }
+
+    /**
+     * Returns the number of requests satisfied by a fresh cached copy
+     * (without contacting the server).
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of cached copies successfully revalidated (that is,
+     * the server reported that the resource was not modified).
+     *
+     * @return The revalidation count.
+     */
+    public long getRevalidationCount() {
+        return revalidationCount.get();
+    }
+
+    /**
+     * Returns the number of resources retrieved from a server.
+     *
+     * @return The download count.
+     */
+    public long getDownloadCount() {
+        return downloadCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder("HttpSchemaCache{");
+        str.append("directory=").append(directory);
+        str.append(", maxAgeMillis=").append(maxAge);
+        str.append(", hits=").append(hitCount.get());
+        str.append(", revalidations=").append(revalidationCount.get());
+        str.append(", downloads=").append(downloadCount.get()).append('}');
+        return str.toString();
+    }
+
+    /**
+     * Determines when a response expires, based on the Cache-Control header
+     * or the default maximum age.
+     *
+     * @param conn
+     *            A URL connection (with a response).
+     * @return The expiry time (milliseconds since the epoch).
+     */
+    long getExpiryTime(URLConnection conn) {
+        long now = System.currentTimeMillis();
+        String cacheControl = conn.getHeaderField("Cache-Control");
+        if (null != cacheControl) {
+            if (cacheControl.contains("no-cache") || cacheControl.contains("no-store")) {
+                return now;
+            }
+            Matcher matcher = MAX_AGE.matcher(cacheControl);
+            if (matcher.find()) {
+                return now + TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1)));
+            }
+        }
+        return now + maxAge;
+    }
+
+    private static Properties readMetadata(File metadataFile) {
+        Properties metadata = new Properties();
+        if (metadataFile.isFile()) {
+            try (InputStream in = Files.newInputStream(metadataFile.toPath())) {
+                metadata.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                LOGR.log(Level.FINE, "Ignoring unreadable cache metadata " + metadataFile, e);
+                metadata.clear();
+            }
+        }
+        return metadata;
+    }
+
+    private static void writeMetadata(File metadataFile, final Properties metadata) throws IOException {
+        AtomicFiles.write(metadataFile, new AtomicFiles.Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                metadata.store(out, null);
+            }
+        });
+    }
+
+    /**
+     * Computes the SHA-256 digest of the given string (UTF-8 encoded).
+     *
+     * @param str
+     *            A string.
+     * @return The digest as a hexadecimal string.
+     */
+    static String digest(String str) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // unlikely: required algorithm
+        }
+        byte[] hash = sha256.digest(str.getBytes(Charset.forName("UTF-8")));
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
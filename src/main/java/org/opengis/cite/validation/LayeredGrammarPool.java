@@ -0,0 +1,67 @@
+package org.opengis.cite.validation;
+
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+
+/**
+ * A grammar pool used while compiling a single schema set. Grammars are looked
+ * up first in a local pool and then in a shared pool. Grammars compiled (or
+ * reused) by the loader are cached in the local pool, which will back the
+ * resulting Schema, and are also offered to the shared pool (which ignores
+ * them if it is locked).
+ */
+final class LayeredGrammarPool implements XMLGrammarPool {
+
+    private final XMLGrammarPoolImpl localPool;
+    private final XMLGrammarPool sharedPool;
+
+    /**
+     * Constructs a layered grammar pool.
+     *
+     * @param localPool
+     *            The pool that collects the grammars of the schema set.
+     * @param sharedPool
+     *            A pool of grammars that may be reused by any schema set.
+     */
+    LayeredGrammarPool(XMLGrammarPoolImpl localPool, XMLGrammarPool sharedPool) {
+        this.localPool = localPool;
+        this.sharedPool = sharedPool;
+    }
+
+    @Override
+    public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+        return localPool.retrieveInitialGrammarSet(grammarType);
+    }
+
+    @Override
+    public void cacheGrammars(String grammarType, Grammar[] grammars) {
+        localPool.cacheGrammars(grammarType, grammars);
+        sharedPool.cacheGrammars(grammarType, grammars);
+    }
+
+    @Override
+    public Grammar retrieveGrammar(XMLGrammarDescription desc) {
+        Grammar grammar = localPool.retrieveGrammar(desc);
+        if (null == grammar) {
+            grammar = sharedPool.retrieveGrammar(desc);
+        }
+        return grammar;
+    }
+
+    @Override
+    public void lockPool() {
+        localPool.lockPool();
+    }
+
+    @Override
+    public void unlockPool() {
+        localPool.unlockPool();
+    }
+
+    @Override
+    public void clear() {
+        localPool.clear();
+    }
+}
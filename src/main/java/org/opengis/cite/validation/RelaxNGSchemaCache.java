@@ -0,0 +1,261 @@
+package org.opengis.cite.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.validation.Schema;
+
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
+
+/**
+ * A thread-safe cache of compiled RELAX NG grammars, keyed by schema URL (and
+ * resource resolver, if any). A compiled {@link Schema} is immutable and may be
+ * shared freely; creating a validator from a cached schema is inexpensive
+ * (see {@link RelaxNGValidator#newValidator(Schema)}).
+ *
+ * <p>
+ * Concurrent requests for the same grammar compile it only once. If
+ * last-modified checking is enabled, a cached schema is recompiled when the
+ * modification time of the grammar resource changes; included grammars are
+ * not checked.
+ * </p>
+ */
+public final class RelaxNGSchemaCache {
+
+    private static final Logger LOGR = Logger.getLogger(RelaxNGSchemaCache.class.getPackage().getName());
+    private final ConcurrentMap<CacheKey, FutureTask<CacheEntry>> schemas = new ConcurrentHashMap<CacheKey, FutureTask<CacheEntry>>();
+    private final boolean checkLastModified;
+
+    private static final class SharedCacheHolder {
+        static final RelaxNGSchemaCache CACHE = new RelaxNGSchemaCache(false);
+    }
+
+    /**
+     * Returns a cache that is shared within the JVM. It does not check for
+     * modified grammars, so it is intended for bundled or otherwise static
+     * resources.
+     *
+     * @return A shared RelaxNGSchemaCache instance.
+     */
+    public static RelaxNGSchemaCache getSharedCache() {
+        return SharedCacheHolder.CACHE;
+    }
+
+    /**
+     * Constructs a cache that does not check whether a grammar has been
+     * modified once it has been compiled.
+     */
+    public RelaxNGSchemaCache() {
+        this(false);
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @param checkLastModified
+     *            If {@code true}, the last-modified time of a grammar is
+     *            checked whenever it is retrieved from the cache and a stale
+     *            schema is recompiled.
+     */
+    public RelaxNGSchemaCache(boolean checkLastModified) {
+        this.checkLastModified = checkLastModified;
+    }
+
+    /**
+     * Returns the compiled schema for the given grammar, compiling it if
+     * necessary.
+     *
+     * @param rngSchemaURL
+     *            A URL that refers to a RELAX NG grammar (XML or compact
+     *            syntax).
+     * @return An immutable Schema object.
+     * @throws SAXException
+     *             If the grammar cannot be parsed.
+     * @throws IOException
+     *             If the grammar cannot be accessed.
+     */
+    public Schema getSchema(URL rngSchemaURL) throws SAXException, IOException {
+        return getSchema(rngSchemaURL, null);
+    }
+
+    /**
+     * Returns the compiled schema for the given grammar and resource resolver,
+     * compiling it if necessary. Schemas compiled with different resolver
+     * instances are cached separately.
+     *
+     * @param rngSchemaURL
+     *            A URL that refers to a RELAX NG grammar (XML or compact
+     *            syntax).
+     * @param resolver
+     *            The resolver used to locate external resources (included
+     *            grammars) while parsing schemas; may be null.
+     * @return An immutable Schema object.
+     * @throws SAXException
+     *             If the grammar cannot be parsed.
+     * @throws IOException
+     *             If the grammar cannot be accessed.
+     */
+    public Schema getSchema(final URL rngSchemaURL, final LSResourceResolver resolver)
+            throws SAXException, IOException {
+        if (null == rngSchemaURL) {
+            throw new IllegalArgumentException("No schema URL supplied.");
+        }
+        CacheKey key = new CacheKey(rngSchemaURL.toString(), resolver);
+        while (true) {
+            FutureTask<CacheEntry> task = schemas.get(key);
+            if (null == task) {
+                FutureTask<CacheEntry> newTask = new FutureTask<CacheEntry>(new Callable<CacheEntry>() {
+                    @Override
+                    public CacheEntry call() throws Exception {
+                        long lastModified = checkLastModified ? getLastModified(rngSchemaURL) : 0;
+                        Schema schema = RelaxNGValidator.createRelaxNGSchema(rngSchemaURL, resolver);
+                        if (null == schema) {
+                            throw new SAXException("Failed to compile RELAX NG grammar: " + rngSchemaURL);
+                        }
+                        return new CacheEntry(schema, lastModified);
+                    }
+                });
+                task = schemas.putIfAbsent(key, newTask);
+                if (null == task) {
+                    task = newTask;
+                    newTask.run();
+                }
+            }
+            CacheEntry entry;
+            try {
+                entry = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compiling grammar: " + rngSchemaURL, e);
+            } catch (ExecutionException e) {
+                schemas.remove(key, task);
+                Throwable cause = e.getCause();
+                if (cause instanceof SAXException) {
+                    throw (SAXException) cause;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+            if (checkLastModified && getLastModified(rngSchemaURL) != entry.lastModified) {
+                if (LOGR.isLoggable(Level.FINE)) {
+                    LOGR.fine("Recompiling modified RELAX NG grammar " + rngSchemaURL);
+                }
+                schemas.remove(key, task);
+                continue;
+            }
+            return entry.schema;
+        }
+    }
+
+    /**
+     * Removes all cached schemas compiled from the given grammar.
+     *
+     * @param rngSchemaURL
+     *            A URL that refers to a RELAX NG grammar.
+     */
+    public void remove(URL rngSchemaURL) {
+        String uri = rngSchemaURL.toString();
+        for (CacheKey key : schemas.keySet()) {
+            if (key.uri.equals(uri)) {
+                schemas.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes all schemas from the cache.
+     */
+    public void clear() {
+        schemas.clear();
+    }
+
+    /**
+     * Returns the number of cached schemas.
+     *
+     * @return The number of entries in the cache.
+     */
+    public int size() {
+        return schemas.size();
+    }
+
+    /**
+     * Determines when the resource at the given URL was last modified.
+     *
+     * @param url
+     *            A URL.
+     * @return The last-modified time (milliseconds since the epoch), or 0 if
+     *         it is not known.
+     * @throws IOException
+     *             If the resource cannot be accessed.
+     */
+    static long getLastModified(URL url) throws IOException {
+        if (url.getProtocol().equals("file")) {
+            try {
+                return new File(url.toURI()).lastModified();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                LOGR.log(Level.FINE, null, e);
+            }
+        }
+        URLConnection connection = url.openConnection();
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).setRequestMethod("HEAD");
+        }
+        try {
+            return connection.getLastModified();
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+
+    private static final class CacheEntry {
+
+        final Schema schema;
+        final long lastModified;
+
+        CacheEntry(Schema schema, long lastModified) {
+            this.schema = schema;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final class CacheKey {
+
+        final String uri;
+        final LSResourceResolver resolver;
+
+        CacheKey(String uri, LSResourceResolver resolver) {
+            this.uri = uri;
+            this.resolver = resolver;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return uri.equals(other.uri) && resolver == other.resolver;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * uri.hashCode() + System.identityHashCode(resolver);
+        }
+    }
+}
@@ -8,28 +8,32 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
 
 import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 
 /**
  * Validates an XML resource with respect to a RELAX NG (ISO 19757-2) schema.
  * The schema may be represented using either the XML or the compact syntax.
+ * A RelaxNGValidator is not thread-safe; use a
+ * {@link ConcurrentRelaxNGValidator} to share a schema among several threads.
  * 
  * @see <a
  *      href="http://standards.iso.org/ittf/PubliclyAvailableStandards/c052348_ISO_IEC_19757-2_2008(E).zip"
@@ -41,6 +45,9 @@ public final class RelaxNGValidator {
             .getPackage().getName());
     private static final String RELAXNG_COMPACT_FACTORY = "com.thaiopensource.relaxng.jaxp.CompactSyntaxSchemaFactory";
     private static final String RELAXNG_XML_FACTORY = "com.thaiopensource.relaxng.jaxp.XMLSyntaxSchemaFactory";
+    /** The maximum number of leading bytes examined to detect XML syntax. */
+    private static final int SNIFF_LIMIT = 1024;
+    private final Schema schema;
     private Validator validator;
 
     /**
@@ -81,10 +88,31 @@ public final class RelaxNGValidator {
         if (null == rngSchemaURL) {
             throw new IllegalArgumentException("No schema URL supplied.");
         }
-        Schema schema = createRelaxNGSchema(rngSchemaURL, resolver);
+        schema = createRelaxNGSchema(rngSchemaURL, resolver);
         validator = schema.newValidator();
     }
 
+    private RelaxNGValidator(Schema rngSchema) {
+        schema = rngSchema;
+        validator = rngSchema.newValidator();
+    }
+
+    /**
+     * Creates a validator using a compiled RELAX NG schema. This is an
+     * inexpensive operation; the schema is typically obtained from a
+     * {@link RelaxNGSchemaCache}.
+     * 
+     * @param rngSchema
+     *            An immutable Schema object representing a RELAX NG grammar.
+     * @return A new RelaxNGValidator (not thread-safe).
+     */
+    public static RelaxNGValidator newValidator(Schema rngSchema) {
+        if (null == rngSchema) {
+            throw new IllegalArgumentException("No schema supplied.");
+        }
+        return new RelaxNGValidator(rngSchema);
+    }
+
     /**
      * Returns the error handler.
      * 
@@ -110,11 +138,65 @@ public final class RelaxNGValidator {
         if (null == source) {
             throw new NullPointerException("source is null.");
         }
+        ValidationErrorHandler errHandler = new ValidationErrorHandler();
+        validator.setErrorHandler(errHandler);
         if (DOMSource.class.isInstance(source)) {
-            source = toStreamSource((DOMSource) source);
+            validate(schema, (DOMSource) source, errHandler);
+        } else {
+            validator.validate(source);
+        }
+    }
+
+    /**
+     * Validates a DOM node by sending it as a stream of SAX events to a
+     * validator handler. The underlying Jing Validator implementation doesn't
+     * support DOMSource inputs, but the DOM need not be serialized and parsed
+     * again.
+     * 
+     * @param schema
+     *            A RELAX NG schema.
+     * @param domSource
+     *            A DOMSource instance.
+     * @param errHandler
+     *            The error handler that receives reported errors.
+     * @throws SAXException
+     *             if a fatal error occurs while reading the DOM node.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    static void validate(Schema schema, DOMSource domSource,
+            ErrorHandler errHandler) throws SAXException, IOException {
+        ValidatorHandler handler = schema.newValidatorHandler();
+        handler.setErrorHandler(errHandler);
+        Transformer idt;
+        try {
+            synchronized (IdentityTransformerFactory.INSTANCE) {
+                idt = IdentityTransformerFactory.INSTANCE.newTransformer();
+            }
+        } catch (TransformerConfigurationException e) {
+            throw new RuntimeException(e); // unlikely
+        }
+        try {
+            idt.transform(domSource, new SAXResult(handler));
+        } catch (TransformerException tex) {
+            Throwable cause = tex.getException();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new SAXException(tex);
         }
-        validator.setErrorHandler(new ValidationErrorHandler());
-        validator.validate(source);
+    }
+
+    /**
+     * Lazily creates a shared TransformerFactory (avoids a service lookup for
+     * each DOMSource).
+     */
+    private static final class IdentityTransformerFactory {
+        static final TransformerFactory INSTANCE = TransformerFactory
+                .newInstance();
     }
 
     /**
@@ -135,7 +217,7 @@ public final class RelaxNGValidator {
      * @throws SAXException
      *             If the grammar cannot be parsed.
      */
-    Schema createRelaxNGSchema(URL schemaURL, LSResourceResolver resolver)
+    static Schema createRelaxNGSchema(URL schemaURL, LSResourceResolver resolver)
             throws SAXException, IOException {
         if (LOGR.isLoggable(Level.FINE)) {
             LOGR.fine("Attempting to create RELAX NG Schema object from schemaURL = "
@@ -144,7 +226,7 @@ public final class RelaxNGValidator {
         InputStream schemaStream = schemaURL.openStream();
         BufferedInputStream bufStream = new BufferedInputStream(schemaStream,
                 8 * 1024);
-        boolean isXMLSyntax = isXMLStream(bufStream);
+        boolean isXMLSyntax = isXMLSyntax(schemaURL, bufStream);
         SchemaFactory schemaFactory;
         if (isXMLSyntax) {
             schemaFactory = SchemaFactory.newInstance(
@@ -175,25 +257,79 @@ public final class RelaxNGValidator {
         return schema;
     }
 
+    /**
+     * Determines whether a grammar uses the XML syntax or the compact syntax.
+     * The conventional file extensions (".rng" and ".rnc") are recognized;
+     * otherwise the leading content is examined.
+     * 
+     * @param schemaURL
+     *            The location of the grammar.
+     * @param bufStream
+     *            A BufferedInputStream for reading the grammar; it is reset to
+     *            the beginning if it is read.
+     * @return true if the grammar uses the XML syntax; false otherwise.
+     */
+    static boolean isXMLSyntax(URL schemaURL, BufferedInputStream bufStream) {
+        String path = schemaURL.getPath().toLowerCase(Locale.ROOT);
+        if (path.endsWith(".rng")) {
+            return true;
+        }
+        if (path.endsWith(".rnc")) {
+            return false;
+        }
+        return isXMLStream(bufStream);
+    }
+
     /**
      * A utility method that attempts to determine if the given stream contains
-     * XML content. The stream is always reset to the beginning so it can be
-     * reused.
+     * XML content. The first non-whitespace character (following any byte
+     * order mark) of an XML document is '&lt;', which cannot begin a grammar
+     * in the compact syntax. The stream is always reset to the beginning so it
+     * can be reused.
      * 
      * @param bufStream
      *            The BufferedInputStream to read.
      * @return true if the stream contains XML data; false otherwise.
      */
-    boolean isXMLStream(BufferedInputStream bufStream) {
-        bufStream.mark(8 * 1024);
-        boolean isXML = true;
-        XMLInputFactory factory = XMLInputFactory.newInstance();
+    static boolean isXMLStream(BufferedInputStream bufStream) {
+        bufStream.mark(SNIFF_LIMIT);
+        boolean isXML = false;
         try {
-            XMLStreamReader reader = factory.createXMLStreamReader(bufStream);
-            // Now in START_DOCUMENT state. Seek document element.
-            reader.nextTag();
-        } catch (XMLStreamException xse) {
-            isXML = false;
+            byte[] buf = new byte[SNIFF_LIMIT];
+            int len = 0;
+            int n;
+            while (len < buf.length
+                    && (n = bufStream.read(buf, len, buf.length - len)) > 0) {
+                len += n;
+            }
+            int pos = 0;
+            int step = 1;
+            if (len >= 3 && (buf[0] & 0xFF) == 0xEF && (buf[1] & 0xFF) == 0xBB
+                    && (buf[2] & 0xFF) == 0xBF) {
+                pos = 3; // UTF-8
+            } else if (len >= 2 && (buf[0] & 0xFF) == 0xFE
+                    && (buf[1] & 0xFF) == 0xFF) {
+                pos = 3; // UTF-16BE: low-order byte follows
+                step = 2;
+            } else if (len >= 2 && (buf[0] & 0xFF) == 0xFF
+                    && (buf[1] & 0xFF) == 0xFE) {
+                pos = 2; // UTF-16LE
+                step = 2;
+            } else if (len >= 2 && buf[0] == 0 && buf[1] == '<') {
+                pos = 1; // UTF-16BE without BOM
+                step = 2;
+            } else if (len >= 2 && buf[0] == '<' && buf[1] == 0) {
+                step = 2; // UTF-16LE without BOM
+            }
+            for (; pos < len; pos += step) {
+                byte b = buf[pos];
+                if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                    isXML = (b == '<');
+                    break;
+                }
+            }
+        } catch (IOException iox) {
+            LOGR.log(Level.INFO, "Error reading BufferedInputStream", iox);
         } finally {
             try {
                 bufStream.reset();
@@ -205,8 +341,9 @@ public final class RelaxNGValidator {
     }
 
     /**
-     * Converts a DOMSource object to a StreamSource. The underlying Jing
-     * Validator implementation doesn't support DOMSource inputs.
+     * Converts a DOMSource object to a StreamSource by serializing the DOM
+     * node. This is no longer used for validation (see
+     * {@link #validate(Schema, DOMSource, ErrorHandler)}).
      * 
      * @param domSource
      *            A DOMSource instance.
@@ -0,0 +1,152 @@
+package org.opengis.cite.validation;
+
+/**
+ * A Schematron rule violation: either a failed assertion (svrl:failed-assert)
+ * or a successful report (svrl:successful-report). Instances of this class are
+ * immutable.
+ *
+ * @see SchematronReport
+ */
+public final class RuleViolation {
+
+    private final boolean failedAssert;
+    private final String id;
+    private final String role;
+    private final String flag;
+    private final String location;
+    private final String test;
+    private final String text;
+    private final String pattern;
+
+    RuleViolation(boolean failedAssert, String id, String role, String flag, String location, String test,
+            String text, String pattern) {
+        this.failedAssert = failedAssert;
+        this.id = id;
+        this.role = role;
+        this.flag = flag;
+        this.location = location;
+        this.test = test;
+        this.text = text;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Indicates whether this violation is a failed assertion (sch:assert).
+     *
+     * @return {@code true} if an assertion failed; {@code false} if a report
+     *         (sch:report) was triggered.
+     */
+    public boolean isFailedAssert() {
+        return failedAssert;
+    }
+
+    /**
+     * Returns the identifier of the assertion.
+     *
+     * @return The value of the id attribute, or null if it is absent.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the role of the assertion.
+     *
+     * @return The value of the role attribute, or null if it is absent.
+     */
+    public String getRole() {
+        return role;
+    }
+
+    /**
+     * Returns the flag raised by the assertion.
+     *
+     * @return The value of the flag attribute, or null if it is absent.
+     */
+    public String getFlag() {
+        return flag;
+    }
+
+    /**
+     * Returns an XPath expression that locates the node being checked.
+     *
+     * @return An XPath location path.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Returns the test expression of the assertion.
+     *
+     * @return An XPath expression.
+     */
+    public String getTest() {
+        return test;
+    }
+
+    /**
+     * Returns the (whitespace-normalized) assertion message.
+     *
+     * @return The text of the message, or an empty string if there is none.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the pattern that contains the assertion. A pattern is identified
+     * by its id, or by its name if it has no id.
+     *
+     * @return The pattern identifier, or an empty string if the pattern is
+     *         anonymous.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns the severity of this violation. A flag (or role) of "warning" or
+     * "info" denotes a warning, and "fatal" or "critical" denotes a critical
+     * error; anything else denotes an error.
+     *
+     * @return The severity of this violation.
+     */
+    public ErrorSeverity getSeverity() {
+        String level = (null != flag) ? flag : role;
+        if (null != level) {
+            if (level.equalsIgnoreCase("warning") || level.equalsIgnoreCase("warn")
+                    || level.equalsIgnoreCase("info")) {
+                return ErrorSeverity.WARNING;
+            }
+            if (level.equalsIgnoreCase("fatal") || level.equalsIgnoreCase("critical")) {
+                return ErrorSeverity.CRITICAL;
+            }
+        }
+        return ErrorSeverity.ERROR;
+    }
+
+    /**
+     * Converts this violation to a validation error. The test expression is
+     * supplied as diagnostic information, and the location path as the
+     * pointer.
+     *
+     * @return A ValidationError object.
+     */
+    public ValidationError toValidationError() {
+        return new ValidationError(getSeverity(), text, "Test: " + test, -1, -1, location);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder(failedAssert ? "failed-assert" : "successful-report");
+        str.append("{pattern=").append(pattern);
+        if (null != id) {
+            str.append(", id=").append(id);
+        }
+        str.append(", test=").append(test);
+        str.append(", location=").append(location);
+        str.append(", text=").append(text).append('}');
+        return str.toString();
+    }
+}
@@ -0,0 +1,269 @@
+package org.opengis.cite.validation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.TransformerException;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.ProxyReceiver;
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.event.Sink;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.s9api.Destination;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * A destination that counts rule violations (svrl:failed-assert and
+ * svrl:successful-report elements) as the SVRL report is produced. Events are
+ * passed on to an underlying destination; if there is none the report is
+ * discarded and no tree is built.
+ *
+ * <p>
+ * Optionally, violations are also tallied per pattern, rule and assertion,
+ * and the transformation is terminated when the first failed assertion is
+ * reported. A counter may be reused, but not concurrently; the counts are
+ * reset whenever a transformation starts.
+ * </p>
+ */
+final class RuleViolationCounter extends ProxyReceiver implements Destination {
+
+    private static final String NO_NAMESPACE = "";
+    private final Destination destination;
+    private final boolean summarize;
+    private final boolean failFast;
+    private int failedAssert = -1;
+    private int successfulReport = -1;
+    private int activePattern = -1;
+    private int firedRule = -1;
+    private int idAttr = -1;
+    private int nameAttr = -1;
+    private int contextAttr = -1;
+    private int testAttr = -1;
+    private int failedAssertCount;
+    private int successfulReportCount;
+    private boolean terminated;
+    private Map<String, Integer> violationsByPattern;
+    private Map<String, Integer> violationsByRule;
+    private Map<String, Integer> violationsByAssertion;
+    /** The SVRL element whose attributes are being received, or -1. */
+    private int pendingElement = -1;
+    private String idValue;
+    private String nameValue;
+    private String contextValue;
+    private String testValue;
+    private String currentPattern = "";
+    private String currentRule = "";
+
+    /**
+     * Constructs a counter that passes events on to the given destination.
+     *
+     * @param destination
+     *            The destination that receives the SVRL report; if null, the
+     *            report is discarded.
+     */
+    RuleViolationCounter(Destination destination) {
+        this(destination, false, false);
+    }
+
+    /**
+     * Constructs a counter that passes events on to the given destination.
+     *
+     * @param destination
+     *            The destination that receives the SVRL report; if null, the
+     *            report is discarded.
+     * @param summarize
+     *            Tally violations per pattern, rule, and assertion.
+     * @param failFast
+     *            Terminate the transformation when the first failed assertion
+     *            is reported.
+     */
+    RuleViolationCounter(Destination destination, boolean summarize, boolean failFast) {
+        this.destination = destination;
+        this.summarize = summarize;
+        this.failFast = failFast;
+    }
+
+    /**
+     * Returns the number of rule violations reported in the most recent
+     * transformation.
+     *
+     * @return An {@code int} value equal to or greater than zero.
+     */
+    int getRuleViolationCount() {
+        return failedAssertCount + successfulReportCount;
+    }
+
+    /**
+     * Indicates whether the most recent transformation was terminated at the
+     * first failed assertion.
+     *
+     * @return {@code true} if the transformation was terminated early.
+     */
+    boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Indicates whether the transformation is terminated when the first failed
+     * assertion is reported.
+     *
+     * @return {@code true} if fail-fast mode is enabled.
+     */
+    boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * Creates an error listener that suppresses the error raised when this
+     * counter terminates the transformation. Other errors are passed on to the
+     * given listener.
+     *
+     * @param listener
+     *            The error listener that receives other errors (may be null).
+     * @return An ErrorListener object.
+     */
+    ErrorListener newErrorListener(final ErrorListener listener) {
+        return new ErrorListener() {
+            @Override
+            public void warning(TransformerException exception) throws TransformerException {
+                if (null != listener) {
+                    listener.warning(exception);
+                }
+            }
+
+            @Override
+            public void error(TransformerException exception) throws TransformerException {
+                if (!terminated && null != listener) {
+                    listener.error(exception);
+                }
+            }
+
+            @Override
+            public void fatalError(TransformerException exception) throws TransformerException {
+                if (!terminated && null != listener) {
+                    listener.fatalError(exception);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a summary of the rule violations reported in the most recent
+     * transformation. The tallies are empty unless this counter summarizes
+     * violations.
+     *
+     * @return An immutable summary of the validation results.
+     */
+    SchematronSummary getSummary() {
+        return new SchematronSummary(failedAssertCount, successfulReportCount, copy(violationsByPattern),
+                copy(violationsByRule), copy(violationsByAssertion), terminated);
+    }
+
+    private static Map<String, Integer> copy(Map<String, Integer> tally) {
+        return (null != tally) ? new LinkedHashMap<String, Integer>(tally) : new LinkedHashMap<String, Integer>();
+    }
+
+    @Override
+    public Receiver getReceiver(Configuration config) throws SaxonApiException {
+        Receiver next = (null != destination) ? destination.getReceiver(config) : new Sink();
+        setUnderlyingReceiver(next);
+        NamePool namePool = config.getNamePool();
+        String svrlNS = SchematronValidator.ISO_SCHEMATRON_SVRL_NS;
+        failedAssert = namePool.allocate("svrl", svrlNS, "failed-assert") & NamePool.FP_MASK;
+        successfulReport = namePool.allocate("svrl", svrlNS, "successful-report") & NamePool.FP_MASK;
+        activePattern = namePool.allocate("svrl", svrlNS, "active-pattern") & NamePool.FP_MASK;
+        firedRule = namePool.allocate("svrl", svrlNS, "fired-rule") & NamePool.FP_MASK;
+        idAttr = namePool.allocate("", NO_NAMESPACE, "id") & NamePool.FP_MASK;
+        nameAttr = namePool.allocate("", NO_NAMESPACE, "name") & NamePool.FP_MASK;
+        contextAttr = namePool.allocate("", NO_NAMESPACE, "context") & NamePool.FP_MASK;
+        testAttr = namePool.allocate("", NO_NAMESPACE, "test") & NamePool.FP_MASK;
+        failedAssertCount = 0;
+        successfulReportCount = 0;
+        terminated = false;
+        pendingElement = -1;
+        currentPattern = "";
+        currentRule = "";
+        if (summarize) {
+            violationsByPattern = new LinkedHashMap<String, Integer>();
+            violationsByRule = new LinkedHashMap<String, Integer>();
+            violationsByAssertion = new LinkedHashMap<String, Integer>();
+        }
+        return this;
+    }
+
+    @Override
+    public void startElement(int nameCode, int typeCode, int locationId, int properties) throws XPathException {
+        int fingerprint = nameCode & NamePool.FP_MASK;
+        if (fingerprint == failedAssert) {
+            failedAssertCount++;
+        } else if (fingerprint == successfulReport) {
+            successfulReportCount++;
+        }
+        if (summarize && (fingerprint == failedAssert || fingerprint == successfulReport
+                || fingerprint == activePattern || fingerprint == firedRule)) {
+            pendingElement = fingerprint;
+            idValue = null;
+            nameValue = null;
+            contextValue = null;
+            testValue = null;
+        } else if (failFast && fingerprint == failedAssert) {
+            pendingElement = fingerprint;
+        }
+        super.startElement(nameCode, typeCode, locationId, properties);
+    }
+
+    @Override
+    public void attribute(int nameCode, int typeCode, CharSequence value, int locationId, int properties)
+            throws XPathException {
+        if (summarize && pendingElement != -1) {
+            int fingerprint = nameCode & NamePool.FP_MASK;
+            if (fingerprint == idAttr) {
+                idValue = value.toString();
+            } else if (fingerprint == nameAttr) {
+                nameValue = value.toString();
+            } else if (fingerprint == contextAttr) {
+                contextValue = value.toString();
+            } else if (fingerprint == testAttr) {
+                testValue = value.toString();
+            }
+        }
+        super.attribute(nameCode, typeCode, value, locationId, properties);
+    }
+
+    @Override
+    public void startContent() throws XPathException {
+        int element = pendingElement;
+        pendingElement = -1;
+        if (element != -1) {
+            if (summarize) {
+                tally(element);
+            }
+            if (failFast && element == failedAssert) {
+                terminated = true;
+                throw new XPathException("Validation terminated at first failed assertion.");
+            }
+        }
+        super.startContent();
+    }
+
+    private void tally(int element) {
+        if (element == activePattern) {
+            currentPattern = (null != idValue) ? idValue : (null != nameValue) ? nameValue : "";
+            currentRule = "";
+        } else if (element == firedRule) {
+            currentRule = (null != idValue) ? idValue : (null != contextValue) ? contextValue : "";
+        } else {
+            increment(violationsByPattern, currentPattern);
+            increment(violationsByRule, currentRule);
+            increment(violationsByAssertion, (null != idValue) ? idValue : (null != testValue) ? testValue : "");
+        }
+    }
+
+    private static void increment(Map<String, Integer> tally, String key) {
+        Integer count = tally.get(key);
+        tally.put(key, (null == count) ? 1 : count + 1);
+    }
+}
@@ -0,0 +1,322 @@
+package org.opengis.cite.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xerces.util.XMLResourceIdentifierImpl;
+import org.apache.xerces.xni.XMLResourceIdentifier;
+import org.apache.xerces.xni.XNIException;
+
+/**
+ * Retrieves the documents that make up a schema set concurrently, before it is
+ * compiled. Starting from the root schemas, each remote (http or https)
+ * document is fetched into an {@link HttpSchemaCache}; other documents (such
+ * as local copies given by the catalog, possibly inside a jar file) are read
+ * directly. Every document is scanned with a streaming reader for
+ * {@code xs:import}, {@code xs:include}, {@code xs:redefine} and
+ * {@code xs:override} references, which are resolved using the catalog in
+ * the same manner as when the schema set is compiled (by namespace name, then
+ * by schema location). Every document in the closure is read exactly once, so
+ * reference cycles are harmless.
+ *
+ * <p>
+ * A document that cannot be retrieved or read is skipped (it will be reported
+ * when the schema set is compiled).
+ * </p>
+ */
+final class SchemaPrefetcher {
+
+    private static final Logger LOGR = Logger.getLogger(SchemaPrefetcher.class.getPackage().getName());
+    private static final XMLInputFactory STAX_FACTORY = createInputFactory();
+    private final CachingCatalogResolver catalog;
+    private final HttpSchemaCache httpCache;
+    private final int threads;
+
+    /**
+     * Constructs a prefetcher.
+     *
+     * @param catalog
+     *            The resolver used to look up schema locations in the entity
+     *            catalog.
+     * @param httpCache
+     *            The cache that receives remote documents.
+     * @param threads
+     *            The maximum number of concurrent retrievals (a positive
+     *            integer).
+     */
+    SchemaPrefetcher(CachingCatalogResolver catalog, HttpSchemaCache httpCache, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be a positive integer: " + threads);
+        }
+        this.catalog = catalog;
+        this.httpCache = httpCache;
+        this.threads = threads;
+    }
+
+    /**
+     * Retrieves the given schemas and all schemas they import or include,
+     * directly or indirectly.
+     *
+     * @param schemaURIs
+     *            A collection of absolute schema locations (already resolved
+     *            using the catalog, as by
+     *            {@link XmlSchemaCompiler#resolveSchemaURIs(URI...)}).
+     * @return The locations of all schema documents that were read (after
+     *         catalog resolution).
+     */
+    Set<URI> prefetch(Collection<URI> schemaURIs) {
+        final Set<URI> visited = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+        final Set<URI> fetched = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "schema-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<List<URI>> completionService = new ExecutorCompletionService<List<URI>>(executor);
+        int pending = 0;
+        try {
+            for (URI schemaURI : schemaURIs) {
+                if (visited.add(schemaURI)) {
+                    completionService.submit(newTask(schemaURI, visited, fetched));
+                    pending++;
+                }
+            }
+            while (pending > 0) {
+                List<URI> references;
+                try {
+                    references = completionService.take().get();
+                } catch (ExecutionException e) {
+                    LOGR.log(Level.FINE, "Failed to prefetch schema", e.getCause());
+                    references = Collections.emptyList();
+                } finally {
+                    pending--;
+                }
+                for (URI reference : references) {
+                    if (visited.add(reference)) {
+                        completionService.submit(newTask(reference, visited, fetched));
+                        pending++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return fetched;
+    }
+
+    /**
+     * Creates a task that reads the document at the given (resolved) location
+     * and returns the resolved locations of the documents it refers to.
+     */
+    private Callable<List<URI>> newTask(final URI location, final Set<URI> visited, final Set<URI> fetched) {
+        return new Callable<List<URI>>() {
+            @Override
+            public List<URI> call() throws IOException {
+                List<XMLResourceIdentifier> references;
+                if (null != CachingCatalogResolver.toRemoteURI(location.toString(), null)) {
+                    references = findReferences(httpCache.getFile(location), location);
+                } else {
+                    // local or bundled (e.g. jar:) resource: scan but do not cache
+                    URL url = location.toURL();
+                    try (InputStream in = url.openStream()) {
+                        references = findReferences(in, url);
+                    }
+                }
+                fetched.add(location);
+                List<URI> locations = new ArrayList<URI>();
+                for (XMLResourceIdentifier reference : references) {
+                    URI referenceLocation = resolve(reference);
+                    if (null != referenceLocation) {
+                        locations.add(referenceLocation);
+                    }
+                }
+                return locations;
+            }
+        };
+    }
+
+    /**
+     * Resolves a reference to a schema document as the compiler does: a
+     * catalog entry for the namespace name takes precedence over one for the
+     * schema location; without a matching entry, the schema location itself
+     * is used.
+     *
+     * @param reference
+     *            A reference to a schema document.
+     * @return The location of the document, or null if it cannot be
+     *         determined (e.g. an import with no schema location and no
+     *         catalog entry for its namespace).
+     */
+    private URI resolve(XMLResourceIdentifier reference) {
+        String location;
+        try {
+            location = catalog.resolveIdentifier(reference);
+        } catch (IOException | XNIException e) {
+            LOGR.log(Level.FINE, "Error reading catalog", e);
+            location = null;
+        }
+        if (null == location) {
+            location = reference.getExpandedSystemId();
+        }
+        if (null == location) {
+            return null;
+        }
+        try {
+            return new URI(location);
+        } catch (URISyntaxException e) {
+            LOGR.log(Level.FINE, "Invalid schema location: {0}", location);
+            return null;
+        }
+    }
+
+    /**
+     * Scans a schema document for references to other schema documents. Only
+     * the leading composition elements are read.
+     *
+     * @param file
+     *            A local copy of the schema document.
+     * @param location
+     *            The location of the schema document (used to resolve
+     *            relative references).
+     * @return A list of references (the expanded system identifier is the
+     *         absolute schema location, if any).
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    static List<XMLResourceIdentifier> findReferences(File file, URI location) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return findReferences(in, location.toURL());
+        }
+    }
+
+    /**
+     * Scans a schema document for references to other schema documents. Only
+     * the leading composition elements are read. Relative references are
+     * resolved as URLs, so that locations within an archive (jar: URLs) are
+     * handled correctly.
+     * 
+     * <p>
+     * Each reference carries the namespace name the parser supplies when it
+     * resolves the reference: the {@code namespace} of an {@code xs:import}
+     * element, or the target namespace of the referring schema for other
+     * references.
+     * </p>
+     *
+     * @param in
+     *            An input stream for reading the schema document.
+     * @param location
+     *            The location of the schema document (used to resolve
+     *            relative references).
+     * @return A list of references (the expanded system identifier is the
+     *         absolute schema location, if any).
+     * @throws IOException
+     *             If the stream cannot be read.
+     */
+    static List<XMLResourceIdentifier> findReferences(InputStream in, URL location) throws IOException {
+        List<XMLResourceIdentifier> references = new ArrayList<XMLResourceIdentifier>();
+        try {
+            XMLStreamReader reader;
+            synchronized (STAX_FACTORY) {
+                reader = STAX_FACTORY.createXMLStreamReader(location.toString(), in);
+            }
+            try {
+                int depth = 0;
+                String targetNamespace = null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                        continue;
+                    }
+                    if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    depth++;
+                    if (depth > 2) {
+                        continue;
+                    }
+                    if (!XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(reader.getNamespaceURI())) {
+                        break;
+                    }
+                    String name = reader.getLocalName();
+                    if (depth == 1) {
+                        if (!name.equals("schema")) {
+                            break;
+                        }
+                        targetNamespace = reader.getAttributeValue(null, "targetNamespace");
+                        continue;
+                    }
+                    if (name.equals("annotation")) {
+                        continue;
+                    }
+                    if (!(name.equals("import") || name.equals("include") || name.equals("redefine")
+                            || name.equals("override"))) {
+                        break;
+                    }
+                    String namespace = name.equals("import") ? reader.getAttributeValue(null, "namespace")
+                            : targetNamespace;
+                    String schemaLocation = reader.getAttributeValue(null, "schemaLocation");
+                    String expandedLocation = null;
+                    if (null != schemaLocation) {
+                        schemaLocation = schemaLocation.trim();
+                        try {
+                            expandedLocation = new URL(location, schemaLocation).toURI().toString();
+                        } catch (MalformedURLException | URISyntaxException e) {
+                            LOGR.log(Level.FINE, "Invalid schema location in {0}: {1}",
+                                    new Object[] { location, schemaLocation });
+                            continue;
+                        }
+                    } else if (null == namespace) {
+                        continue;
+                    }
+                    references.add(new XMLResourceIdentifierImpl(null, schemaLocation, location.toString(),
+                            expandedLocation, namespace));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            LOGR.log(Level.FINE, "Failed to scan " + location, e);
+        }
+        return references;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+}
@@ -0,0 +1,382 @@
+package org.opengis.cite.validation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.apache.xerces.xni.XMLResourceIdentifier;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.parser.XMLEntityResolver;
+import org.apache.xerces.xni.parser.XMLInputSource;
+
+/**
+ * A snapshot of the schema documents that make up a compiled schema set. The
+ * snapshot is written to a compact (compressed) binary file containing the
+ * location, SHA-256 digest and content of every document, along with the
+ * size and modification time of local (file) documents. It is used to compile
+ * the schema set again without retrieving any of its documents.
+ *
+ * <p>
+ * A snapshot is stale if any of its local documents has been modified or
+ * removed since the snapshot was taken. A local document whose size and
+ * modification time are unchanged is assumed to be unmodified; otherwise its
+ * content is compared with the recorded digest. Remote documents are not
+ * checked.
+ * </p>
+ *
+ * @see XmlSchemaCompiler#compileXmlSchemaWithSnapshot(File, URI...)
+ */
+final class SchemaSnapshot {
+
+    private static final Logger LOGR = Logger.getLogger(SchemaSnapshot.class.getPackage().getName());
+    private static final int MAGIC = 0x58534453; // "XSDS"
+    private static final int VERSION = 2;
+    private final List<String> roots;
+    private final Map<String, byte[]> documents;
+    private final Map<String, byte[]> digests;
+    private final Map<String, long[]> fileStates;
+
+    /**
+     * Constructs a snapshot.
+     *
+     * @param roots
+     *            The locations of the root schema documents.
+     * @param documents
+     *            The content of all schema documents, keyed by location
+     *            (including the root documents).
+     * @throws IOException
+     *             If a local document cannot be read.
+     */
+    SchemaSnapshot(List<String> roots, Map<String, byte[]> documents) throws IOException {
+        this.roots = new ArrayList<String>();
+        for (String root : roots) {
+            this.roots.add(normalize(root));
+        }
+        this.documents = new LinkedHashMap<String, byte[]>();
+        this.digests = new LinkedHashMap<String, byte[]>();
+        this.fileStates = new LinkedHashMap<String, long[]>();
+        for (Map.Entry<String, byte[]> entry : documents.entrySet()) {
+            String location = normalize(entry.getKey());
+            byte[] digest = digest(entry.getValue());
+            this.documents.put(location, entry.getValue());
+            this.digests.put(location, digest);
+            Path path = localPath(location);
+            if (null != path) {
+                // the state is only recorded if the file still has the given
+                // content after it was taken
+                long[] state = fileState(path);
+                if (null != state && Arrays.equals(digest, digest(Files.readAllBytes(path)))) {
+                    this.fileStates.put(location, state);
+                }
+            }
+        }
+    }
+
+    private SchemaSnapshot(List<String> roots, Map<String, byte[]> documents, Map<String, byte[]> digests,
+            Map<String, long[]> fileStates) {
+        this.roots = roots;
+        this.documents = documents;
+        this.digests = digests;
+        this.fileStates = fileStates;
+    }
+
+    /**
+     * Returns the locations of the root schema documents.
+     *
+     * @return An unmodifiable list of (normalized) locations.
+     */
+    List<String> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    /**
+     * Returns the number of schema documents in the snapshot.
+     *
+     * @return The number of documents.
+     */
+    int getDocumentCount() {
+        return documents.size();
+    }
+
+    /**
+     * Returns the content of a schema document.
+     *
+     * @param location
+     *            The location of the document.
+     * @return The document content, or null if it is not in the snapshot.
+     */
+    byte[] getDocument(String location) {
+        return (null != location) ? documents.get(normalize(location)) : null;
+    }
+
+    /**
+     * Determines whether any local schema document has been modified or
+     * removed since the snapshot was taken. A document is only read (and its
+     * digest computed) if its size or modification time has changed.
+     *
+     * @return {@code true} if the snapshot is out of date.
+     */
+    boolean isStale() {
+        for (Map.Entry<String, byte[]> entry : digests.entrySet()) {
+            String location = entry.getKey();
+            Path path = localPath(location);
+            if (null == path) {
+                continue;
+            }
+            long[] state = fileState(path);
+            if (null == state) {
+                LOGR.log(Level.FINE, "Snapshot document unavailable: {0}", location);
+                return true;
+            }
+            if (Arrays.equals(state, fileStates.get(location))) {
+                continue;
+            }
+            byte[] content;
+            try {
+                content = Files.readAllBytes(path);
+            } catch (IOException e) {
+                LOGR.log(Level.FINE, "Snapshot document unavailable: {0}", location);
+                return true;
+            }
+            if (!Arrays.equals(entry.getValue(), digest(content))) {
+                LOGR.log(Level.FINE, "Snapshot document modified: {0}", location);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates an entity resolver that reads schema documents from the
+     * snapshot. A reference is first resolved using the catalog; documents
+     * that are not in the snapshot are resolved as usual.
+     *
+     * @param catalog
+     *            The catalog resolver used when the snapshot was taken.
+     * @return An XMLEntityResolver object.
+     */
+    XMLEntityResolver newEntityResolver(final CachingCatalogResolver catalog) {
+        return new XMLEntityResolver() {
+            @Override
+            public XMLInputSource resolveEntity(XMLResourceIdentifier resourceIdentifier)
+                    throws XNIException, IOException {
+                String location = catalog.resolveIdentifier(resourceIdentifier);
+                if (null == location) {
+                    location = resourceIdentifier.getExpandedSystemId();
+                }
+                byte[] content = getDocument(location);
+                if (null == content) {
+                    return catalog.resolveEntity(resourceIdentifier);
+                }
+                XMLInputSource input = new XMLInputSource(resourceIdentifier.getPublicId(), location,
+                        resourceIdentifier.getBaseSystemId());
+                input.setByteStream(new ByteArrayInputStream(content));
+                return input;
+            }
+        };
+    }
+
+    /**
+     * Reads a snapshot file.
+     *
+     * @param file
+     *            A snapshot file.
+     * @return The snapshot, or null if the file does not exist or is not a
+     *         valid snapshot.
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    static SchemaSnapshot read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file.toPath()))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGR.log(Level.FINE, "Not a schema snapshot: {0}", file);
+                return null;
+            }
+            int rootCount = readCount(in);
+            List<String> roots = new ArrayList<String>();
+            for (int i = 0; i < rootCount; i++) {
+                roots.add(in.readUTF());
+            }
+            int documentCount = readCount(in);
+            Map<String, byte[]> documents = new LinkedHashMap<String, byte[]>();
+            Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+            Map<String, long[]> fileStates = new LinkedHashMap<String, long[]>();
+            for (int i = 0; i < documentCount; i++) {
+                String location = in.readUTF();
+                byte[] digest = new byte[in.readUnsignedByte()];
+                in.readFully(digest);
+                if (in.readBoolean()) {
+                    fileStates.put(location, new long[] { in.readLong(), in.readLong() });
+                }
+                byte[] content = readBytes(in, readCount(in));
+                documents.put(location, content);
+                digests.put(location, digest);
+            }
+            return new SchemaSnapshot(roots, documents, digests, fileStates);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (EOFException | ZipException | StreamCorruptedException | UTFDataFormatException e) {
+            LOGR.log(Level.WARNING, "Ignoring corrupt schema snapshot " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads a non-negative count or length.
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new StreamCorruptedException("Negative count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads the given number of bytes. The buffer grows only as data is
+     * actually read, so a corrupt (huge) length ends with an EOFException
+     * rather than an attempt to allocate the whole array up front.
+     */
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(length, 8192));
+        byte[] buffer = new byte[8192];
+        int remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, Math.min(remaining, buffer.length));
+            if (n < 0) {
+                throw new EOFException("Expected " + remaining + " more bytes.");
+            }
+            bytes.write(buffer, 0, n);
+            remaining -= n;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes this snapshot to a file, replacing it if it exists.
+     *
+     * @param file
+     *            The snapshot file.
+     * @throws IOException
+     *             If the file cannot be written.
+     */
+    void write(File file) throws IOException {
+        AtomicFiles.write(file, new AtomicFiles.Content() {
+            @Override
+            public void writeTo(OutputStream stream) throws IOException {
+                GZIPOutputStream gzip = new GZIPOutputStream(stream);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(roots.size());
+                for (String root : roots) {
+                    out.writeUTF(root);
+                }
+                out.writeInt(documents.size());
+                for (Map.Entry<String, byte[]> entry : documents.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    byte[] digest = digests.get(entry.getKey());
+                    out.writeByte(digest.length);
+                    out.write(digest);
+                    long[] state = fileStates.get(entry.getKey());
+                    out.writeBoolean(null != state);
+                    if (null != state) {
+                        out.writeLong(state[0]);
+                        out.writeLong(state[1]);
+                    }
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+                out.flush();
+                gzip.finish();
+            }
+        });
+    }
+
+    /**
+     * Normalizes a document location so that equivalent file URIs (such as
+     * "file:/a" and "file:///a") compare equal.
+     *
+     * @param location
+     *            An absolute URI.
+     * @return The normalized location.
+     */
+    static String normalize(String location) {
+        try {
+            URI uri = new URI(location).normalize();
+            if ("file".equalsIgnoreCase(uri.getScheme()) && null == uri.getQuery() && null == uri.getFragment()) {
+                return new File(uri).toURI().toString();
+            }
+            return uri.toString();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return location;
+        }
+    }
+
+    /**
+     * Returns the local file a (normalized) location refers to.
+     *
+     * @param location
+     *            A document location.
+     * @return The file path, or null if the location is not a file URI.
+     */
+    private static Path localPath(String location) {
+        try {
+            URI uri = URI.create(location);
+            return "file".equalsIgnoreCase(uri.getScheme()) ? new File(uri).toPath() : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the size and modification time (in ms) of a file.
+     *
+     * @param path
+     *            A file path.
+     * @return The file state, or null if the file is not available.
+     */
+    static long[] fileState(Path path) {
+        try {
+            return new long[] { Files.size(path), Files.getLastModifiedTime(path).toMillis() };
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // unlikely: required algorithm
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.opengis.cite.validation;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+
+import javax.xml.transform.Source;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.s9api.XsltTransformer;
+
+/**
+ * Validates a sequence of documents in parallel against a compiled Schematron
+ * schema, and supplies the results in the order in which validation
+ * completes.
+ *
+ * <p>
+ * At most <em>parallelism</em> documents are submitted to the executor at any
+ * time. The source documents are read lazily: another document is only
+ * submitted once a result has been taken, so a slow consumer throttles
+ * validation and the number of retained reports is bounded. Transformers are
+ * pooled and reused by successive tasks; an idle transformer does not retain
+ * the last document or report.
+ * </p>
+ *
+ * <p>
+ * The iterator itself is not thread-safe; it is meant to be consumed by a
+ * single thread.
+ * </p>
+ */
+final class SchematronBatch implements Iterator<SchematronResult> {
+
+    private final CompiledSchematron schematron;
+    private final Iterator<? extends Source> sources;
+    private final Map<String, String> params;
+    private final CompletionService<SchematronResult> completionService;
+    private final Queue<XsltTransformer> transformers = new ConcurrentLinkedQueue<XsltTransformer>();
+    private int pending;
+
+    /**
+     * Starts validating the given documents.
+     *
+     * @param schematron
+     *            The compiled schema.
+     * @param sources
+     *            The documents to validate.
+     * @param params
+     *            Parameter names and values required to evaluate Schematron
+     *            rules (may be null).
+     * @param executor
+     *            The executor that runs validation tasks.
+     * @param parallelism
+     *            The maximum number of documents that are validated (or whose
+     *            results are waiting to be taken) at any time.
+     */
+    SchematronBatch(CompiledSchematron schematron, Iterable<? extends Source> sources, Map<String, String> params,
+            Executor executor, int parallelism) {
+        if (null == sources) {
+            throw new IllegalArgumentException("No sources provided.");
+        }
+        if (null == executor) {
+            throw new IllegalArgumentException("No executor provided.");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be a positive integer: " + parallelism);
+        }
+        this.schematron = schematron;
+        this.sources = sources.iterator();
+        this.params = (null != params) ? new HashMap<String, String>(params) : null;
+        this.completionService = new ExecutorCompletionService<SchematronResult>(executor);
+        for (int i = 0; i < parallelism && submitNext(); i++) {
+            // fill the pipeline
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending > 0;
+    }
+
+    /**
+     * Returns the result of the next document to complete validation, waiting
+     * if necessary.
+     *
+     * @return The results of a validation episode; the validated document is
+     *         available from {@link SchematronResult#getSource()}.
+     */
+    @Override
+    public SchematronResult next() {
+        if (pending == 0) {
+            throw new NoSuchElementException();
+        }
+        SchematronResult result;
+        try {
+            result = completionService.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for validation results.", e);
+        } catch (ExecutionException e) {
+            pending--;
+            submitNext();
+            throw new RuntimeException(e.getCause());
+        }
+        pending--;
+        submitNext();
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Results cannot be removed.");
+    }
+
+    private boolean submitNext() {
+        if (!sources.hasNext()) {
+            return false;
+        }
+        final Source xmlSource = sources.next();
+        completionService.submit(new Callable<SchematronResult>() {
+            @Override
+            public SchematronResult call() {
+                XsltTransformer transformer = transformers.poll();
+                if (null == transformer) {
+                    transformer = schematron.newTransformer();
+                    if (null != params) {
+                        CompiledSchematron.setParameters(transformer, params);
+                    }
+                }
+                try {
+                    return schematron.validate(transformer, xmlSource);
+                } finally {
+                    release(transformer);
+                }
+            }
+        });
+        pending++;
+        return true;
+    }
+
+    /**
+     * Returns a transformer to the pool once it has released the source
+     * document, the report, and any documents or variable values retained by
+     * the underlying controller. Resetting the controller also clears the
+     * parameters, so these are set again.
+     *
+     * @param transformer
+     *            A transformer that is no longer in use.
+     */
+    private void release(XsltTransformer transformer) {
+        transformer.setInitialContextNode(null);
+        transformer.setDestination(null);
+        Controller controller = transformer.getUnderlyingController();
+        controller.reset();
+        controller.clearDocumentPool();
+        if (null != params) {
+            CompiledSchematron.setParameters(transformer, params);
+        }
+        transformers.offer(transformer);
+    }
+}
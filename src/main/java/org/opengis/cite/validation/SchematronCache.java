@@ -0,0 +1,378 @@
+package org.opengis.cite.validation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * A persistent (on-disk) cache of compiled Schematron schemas. Each entry
+ * holds the SVRL-producing XSLT stylesheet generated by the ISO preprocessing
+ * pipeline (inclusions, abstract patterns, SVRL report). An entry is keyed by a
+ * digest of the schema content, its system identifier, and the active phase;
+ * it is discarded if any included resource has changed since the entry was
+ * created.
+ *
+ * <p>
+ * The cache directory may be shared by several processes; entries are written
+ * to a temporary file that is atomically moved into place.
+ * </p>
+ */
+public class SchematronCache {
+
+    private static final Logger LOGR = Logger.getLogger(SchematronCache.class.getPackage().getName());
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String STYLESHEET_SUFFIX = ".xsl";
+    private static final String DEPENDENCIES_SUFFIX = ".deps";
+    /**
+     * Bundled stylesheets that determine the content of a generated
+     * stylesheet.
+     */
+    private static final String[] SKELETON_RESOURCES = { "iso_dsdl_include.xsl", "iso_abstract_expand.xsl",
+            "iso_svrl_xslt2.xsl", "iso_schematron_skeleton_saxon.xsl" };
+    private static volatile String skeletonDigest;
+    private final File directory;
+
+    /**
+     * Constructs a cache that keeps its entries in the given directory. The
+     * directory is created if it does not already exist.
+     *
+     * @param directory
+     *            The cache directory.
+     * @throws IOException
+     *             If the directory cannot be created.
+     */
+    public SchematronCache(File directory) throws IOException {
+        if (null == directory) {
+            throw new IllegalArgumentException("No cache directory provided.");
+        }
+        Files.createDirectories(directory.toPath());
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the directory where cache entries are stored.
+     *
+     * @return A File denoting a directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Deletes all entries in the cache.
+     *
+     * @throws IOException
+     *             If an entry cannot be deleted.
+     */
+    public void clear() throws IOException {
+        File[] files = directory.listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(STYLESHEET_SUFFIX) || name.endsWith(DEPENDENCIES_SUFFIX)) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * Generates a cache key for a Schematron schema.
+     *
+     * @param content
+     *            The buffered schema content.
+     * @param phase
+     *            The active phase (may be null).
+     * @return A hexadecimal digest value.
+     */
+    String createKey(SchemaContent content, String phase) {
+        MessageDigest digest = newDigest();
+        digest.update(skeletonDigest().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        if (null != content.systemId) {
+            digest.update(content.systemId.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+        if (null != phase) {
+            digest.update(phase.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+        digest.update(content.bytes);
+        return toHexString(digest.digest());
+    }
+
+    /**
+     * Looks up a compiled schema. An entry is only returned if none of the
+     * resources it depends on (included schemas) have been modified.
+     *
+     * @param key
+     *            The cache key.
+     * @param systemId
+     *            The system identifier of the original schema; it is used as
+     *            the base URI of the stylesheet (may be null).
+     * @return A Source for reading the cached stylesheet, or null if there is
+     *         no current entry.
+     */
+    Source lookup(String key, String systemId) {
+        File stylesheet = new File(directory, key + STYLESHEET_SUFFIX);
+        File dependencies = new File(directory, key + DEPENDENCIES_SUFFIX);
+        if (!stylesheet.isFile() || !dependencies.isFile()) {
+            return null;
+        }
+        Properties deps = new Properties();
+        try (InputStream in = Files.newInputStream(dependencies.toPath())) {
+            deps.load(in);
+            for (String uri : deps.stringPropertyNames()) {
+                if (!deps.getProperty(uri).equals(digestResource(uri))) {
+                    LOGR.log(Level.FINE, "Cached schema {0} is stale: {1} was modified", new Object[] { key, uri });
+                    return null;
+                }
+            }
+            byte[] xslt = Files.readAllBytes(stylesheet.toPath());
+            return new StreamSource(new ByteArrayInputStream(xslt),
+                    (null != systemId) ? systemId : stylesheet.toURI().toString());
+        } catch (IOException e) {
+            LOGR.log(Level.FINE, "Failed to read cached schema " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds a compiled schema to the cache, replacing any existing entry with
+     * the same key.
+     *
+     * @param key
+     *            The cache key.
+     * @param stylesheet
+     *            The serialized XSLT stylesheet.
+     * @param dependencies
+     *            A collection of absolute URIs referring to the resources
+     *            incorporated into the schema.
+     * @throws IOException
+     *             If the entry cannot be written.
+     */
+    void store(String key, byte[] stylesheet, Collection<String> dependencies) throws IOException {
+        Properties deps = new Properties();
+        for (String uri : dependencies) {
+            deps.setProperty(uri, digestResource(uri));
+        }
+        ByteArrayOutputStream depsBytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(depsBytes, StandardCharsets.ISO_8859_1)) {
+            deps.store(writer, null);
+        }
+        // write stylesheet last: a lookup requires both files
+        AtomicFiles.write(new File(directory, key + DEPENDENCIES_SUFFIX), depsBytes.toByteArray());
+        AtomicFiles.write(new File(directory, key + STYLESHEET_SUFFIX), stylesheet);
+        LOGR.log(Level.FINE, "Cached compiled schema {0} in {1}", new Object[] { key, directory });
+    }
+
+    /**
+     * Computes a digest of the content of the referenced resource.
+     *
+     * @param uri
+     *            An absolute URI.
+     * @return A hexadecimal digest value, or an empty string if the resource
+     *         cannot be read.
+     */
+    private static String digestResource(String uri) {
+        try (InputStream in = URI.create(uri).toURL().openStream()) {
+            return toHexString(digest(in));
+        } catch (IOException | IllegalArgumentException e) {
+            LOGR.log(Level.FINE, "Failed to read schema resource " + uri, e);
+            return "";
+        }
+    }
+
+    private static String skeletonDigest() {
+        String value = skeletonDigest;
+        if (null == value) {
+            MessageDigest digest = newDigest();
+            for (String resource : SKELETON_RESOURCES) {
+                try (InputStream in = SchematronCache.class.getResourceAsStream(resource)) {
+                    digest.update(digest(in));
+                } catch (IOException e) {
+                    throw new RuntimeException(e); // unlikely using bundled stylesheets
+                }
+            }
+            value = toHexString(digest.digest());
+            skeletonDigest = value;
+        }
+        return value;
+    }
+
+    private static byte[] digest(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // SHA-256 is always supported
+        }
+    }
+
+    private static String toHexString(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Reads the content of a Schematron schema into memory so that it can be
+     * both digested and processed. Only a StreamSource (byte stream, character
+     * stream, or system identifier) can be buffered.
+     *
+     * @param schema
+     *            A Source to read the schema from.
+     * @return The buffered schema content, or null if the source cannot be
+     *         buffered.
+     * @throws IOException
+     *             If an error occurs while reading the schema.
+     */
+    static SchemaContent readSchema(Source schema) throws IOException {
+        if (!StreamSource.class.isInstance(schema)) {
+            return null;
+        }
+        StreamSource streamSource = (StreamSource) schema;
+        String systemId = streamSource.getSystemId();
+        if (null != streamSource.getInputStream()) {
+            try (InputStream in = streamSource.getInputStream()) {
+                return new SchemaContent(readBytes(in), false, systemId);
+            }
+        }
+        if (null != streamSource.getReader()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (Reader reader = streamSource.getReader();
+                    Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+                char[] buffer = new char[8 * 1024];
+                int n;
+                while ((n = reader.read(buffer)) != -1) {
+                    writer.write(buffer, 0, n);
+                }
+            }
+            return new SchemaContent(bytes.toByteArray(), true, systemId);
+        }
+        if (null != systemId) {
+            try (InputStream in = new URL(systemId).openStream()) {
+                return new SchemaContent(readBytes(in), false, systemId);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        copy(in, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+    }
+
+    /**
+     * The buffered content of a Schematron schema.
+     */
+    static final class SchemaContent {
+
+        final byte[] bytes;
+        /**
+         * Indicates that the content was read from a character stream (the
+         * bytes are UTF-8 encoded).
+         */
+        final boolean characters;
+        final String systemId;
+
+        SchemaContent(byte[] bytes, boolean characters, String systemId) {
+            this.bytes = bytes;
+            this.characters = characters;
+            this.systemId = systemId;
+        }
+
+        /**
+         * Creates a new Source for reading the buffered schema.
+         *
+         * @return A StreamSource object.
+         */
+        Source toSource() {
+            InputStream in = new ByteArrayInputStream(bytes);
+            StreamSource source = characters
+                    ? new StreamSource(new InputStreamReader(in, StandardCharsets.UTF_8))
+                    : new StreamSource(in);
+            source.setSystemId(systemId);
+            return source;
+        }
+    }
+
+    /**
+     * A URIResolver that records the absolute URIs of all resources it
+     * resolves (that is, the included schemas).
+     */
+    static final class DependencyRecorder implements URIResolver {
+
+        private final URIResolver delegate;
+        private final Set<String> dependencies = new LinkedHashSet<String>();
+
+        DependencyRecorder(URIResolver delegate) {
+            this.delegate = delegate;
+        }
+
+        Collection<String> getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public Source resolve(String href, String base) throws TransformerException {
+            Source source = delegate.resolve(href, base);
+            String uri = (null != source) ? source.getSystemId() : null;
+            if (null == uri) {
+                try {
+                    uri = (null != base) ? new URI(base).resolve(href).toString() : href;
+                } catch (Exception e) {
+                    uri = href;
+                }
+            }
+            dependencies.add(uri);
+            return source;
+        }
+    }
+}
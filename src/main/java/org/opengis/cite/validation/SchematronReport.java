@@ -0,0 +1,202 @@
+package org.opengis.cite.validation;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+
+/**
+ * Provides typed access to an SVRL (Schematron Validation Report Language)
+ * report. The rule violations it contains are read directly from the
+ * underlying XDM tree; a {@link RuleViolation} is only created when it is
+ * reached during iteration. Instances of this class are immutable.
+ *
+ * @see <a href=
+ *      "http://standards.iso.org/ittf/PubliclyAvailableStandards/c040833_ISO_IEC_19757-3_2006(E).zip"
+ *      >ISO 19757-3:2006, Annex D: Schematron Validation Report Language</a>
+ */
+public final class SchematronReport implements Iterable<RuleViolation> {
+
+    /** The namespace name of ISO Schematron schemas. */
+    public static final String ISO_SCHEMATRON_NS = "http://purl.oclc.org/dsdl/schematron";
+    private static final String SVRL_NS = SchematronValidator.ISO_SCHEMATRON_SVRL_NS;
+    private static final QName SCHEMATRON_OUTPUT = new QName(SVRL_NS, "schematron-output");
+    private static final QName ACTIVE_PATTERN = new QName(SVRL_NS, "active-pattern");
+    private static final QName FAILED_ASSERT = new QName(SVRL_NS, "failed-assert");
+    private static final QName SUCCESSFUL_REPORT = new QName(SVRL_NS, "successful-report");
+    private static final QName TEXT = new QName(SVRL_NS, "text");
+    private static final QName ID = new QName("id");
+    private static final QName NAME = new QName("name");
+    private static final QName ROLE = new QName("role");
+    private static final QName FLAG = new QName("flag");
+    private static final QName LOCATION = new QName("location");
+    private static final QName TEST = new QName("test");
+    private static final QName TITLE = new QName("title");
+    private static final QName PHASE = new QName("phase");
+    private final XdmNode svrlReport;
+
+    /**
+     * Constructs a report from an SVRL document.
+     *
+     * @param svrlReport
+     *            The document node (or the document element) of an SVRL
+     *            report.
+     */
+    public SchematronReport(XdmNode svrlReport) {
+        if (null == svrlReport) {
+            throw new IllegalArgumentException("No SVRL report provided.");
+        }
+        this.svrlReport = svrlReport;
+    }
+
+    /**
+     * Returns the underlying SVRL report.
+     *
+     * @return An XdmNode representing an SVRL document.
+     */
+    public XdmNode getSvrlReport() {
+        return svrlReport;
+    }
+
+    /**
+     * Returns the title of the schema.
+     *
+     * @return The report title, or null if the schema has none.
+     */
+    public String getTitle() {
+        XdmNode root = getOutputElement();
+        return (null != root) ? root.getAttributeValue(TITLE) : null;
+    }
+
+    /**
+     * Returns the phase that was active.
+     *
+     * @return The name of the phase, or null if it was not reported.
+     */
+    public String getPhase() {
+        XdmNode root = getOutputElement();
+        return (null != root) ? root.getAttributeValue(PHASE) : null;
+    }
+
+    /**
+     * Returns an iterator over the rule violations (failed assertions and
+     * successful reports) in document order.
+     *
+     * @return A read-only Iterator.
+     */
+    @Override
+    public Iterator<RuleViolation> iterator() {
+        XdmNode root = getOutputElement();
+        if (null == root) {
+            return Collections.<RuleViolation>emptyIterator();
+        }
+        return new RuleViolationIterator(root.axisIterator(Axis.CHILD));
+    }
+
+    /**
+     * Collects the rule violations as validation errors in a new error
+     * handler.
+     *
+     * @return A ValidationErrorHandler containing an error for each rule
+     *         violation.
+     */
+    public ValidationErrorHandler toErrorHandler() {
+        ValidationErrorHandler errHandler = new ValidationErrorHandler();
+        errHandler.setSchemaLanguage(ISO_SCHEMATRON_NS);
+        for (RuleViolation violation : this) {
+            errHandler.addError(violation.toValidationError());
+        }
+        return errHandler;
+    }
+
+    private XdmNode getOutputElement() {
+        if (svrlReport.getNodeKind() == XdmNodeKind.ELEMENT) {
+            return svrlReport;
+        }
+        XdmSequenceIterator itr = svrlReport.axisIterator(Axis.CHILD, SCHEMATRON_OUTPUT);
+        return itr.hasNext() ? (XdmNode) itr.next() : null;
+    }
+
+    private static String normalizeSpace(String str) {
+        StringBuilder normalized = new StringBuilder(str.length());
+        boolean space = false;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Iterates over the children of svrl:schematron-output, keeping track of
+     * the current pattern and creating a RuleViolation for each failed
+     * assertion or successful report.
+     */
+    private static final class RuleViolationIterator implements Iterator<RuleViolation> {
+
+        private final XdmSequenceIterator children;
+        private String pattern = "";
+        private RuleViolation next;
+
+        RuleViolationIterator(XdmSequenceIterator children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (null == next && children.hasNext()) {
+                XdmItem item = children.next();
+                XdmNode node = (XdmNode) item;
+                if (node.getNodeKind() != XdmNodeKind.ELEMENT) {
+                    continue;
+                }
+                QName name = node.getNodeName();
+                if (name.equals(ACTIVE_PATTERN)) {
+                    String id = node.getAttributeValue(ID);
+                    String patternName = node.getAttributeValue(NAME);
+                    pattern = (null != id) ? id : (null != patternName) ? patternName : "";
+                } else if (name.equals(FAILED_ASSERT) || name.equals(SUCCESSFUL_REPORT)) {
+                    next = createRuleViolation(node, name.equals(FAILED_ASSERT));
+                }
+            }
+            return null != next;
+        }
+
+        @Override
+        public RuleViolation next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RuleViolation violation = next;
+            next = null;
+            return violation;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Report is read-only.");
+        }
+
+        private RuleViolation createRuleViolation(XdmNode node, boolean failedAssert) {
+            XdmSequenceIterator textItr = node.axisIterator(Axis.CHILD, TEXT);
+            String text = textItr.hasNext() ? normalizeSpace(textItr.next().getStringValue()) : "";
+            return new RuleViolation(failedAssert, node.getAttributeValue(ID), node.getAttributeValue(ROLE),
+                    node.getAttributeValue(FLAG), node.getAttributeValue(LOCATION), node.getAttributeValue(TEST),
+                    text, pattern);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.opengis.cite.validation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stream.StreamResult;
+
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltTransformer;
+
+/**
+ * The results of a single Schematron validation episode. Instances of this
+ * class are immutable.
+ *
+ * @see CompiledSchematron#validate(javax.xml.transform.Source)
+ */
+public final class SchematronResult {
+
+    private static final Logger LOGR = Logger.getLogger(SchematronResult.class.getPackage().getName());
+    private final XdmNode svrlReport;
+    private final int ruleViolationCount;
+    private final Source source;
+
+    SchematronResult(XdmNode svrlReport, int ruleViolationCount, Source source) {
+        this.svrlReport = svrlReport;
+        this.ruleViolationCount = ruleViolationCount;
+        this.source = source;
+    }
+
+    /**
+     * Returns the XML resource that was validated. This identifies the
+     * document when results are supplied in completion order (see
+     * {@link CompiledSchematron#validateAll(Iterable, java.util.Map, java.util.concurrent.Executor, int)}).
+     *
+     * @return The Source that was validated.
+     */
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * Get the number of violations (failed assertions and successful reports)
+     * for the validation episode.
+     *
+     * @return An {@code int} value equal to or greater than zero.
+     */
+    public int getRuleViolationCount() {
+        return ruleViolationCount;
+    }
+
+    /**
+     * Indicates the occurrence of any rule violations.
+     *
+     * @return {@code true} if any rule violations have been detected;
+     *         {@code false} otherwise.
+     */
+    public boolean ruleViolationsDetected() {
+        return ruleViolationCount > 0;
+    }
+
+    /**
+     * Returns the validation results as a standard SVRL report.
+     *
+     * @return The document node of the SVRL report (svrl:schematron-output).
+     */
+    public XdmNode getSvrlReport() {
+        return svrlReport;
+    }
+
+    /**
+     * Returns the SVRL report as a sequence of rule violations. This avoids
+     * wrapping the report as a DOM and evaluating XPath expressions against
+     * it.
+     *
+     * @return A SchematronReport backed by the SVRL report.
+     */
+    public SchematronReport getReport() {
+        return new SchematronReport(svrlReport);
+    }
+
+    /**
+     * Returns the SVRL report as a (read-only) DOM Document.
+     *
+     * @return A DOMResult wrapping the report document.
+     */
+    public DOMResult toDOMResult() {
+        return new DOMResult(NodeOverNodeInfo.wrap(svrlReport.getUnderlyingNode()));
+    }
+
+    /**
+     * Transforms the SVRL report to a plain text representation that only
+     * includes rule violations (positive or negative assertion failures).
+     *
+     * @return A StreamResult holding the plain text output (as a byte stream),
+     *         or null if the transformation failed.
+     */
+    public StreamResult toTextResult() {
+        StreamResult result = null;
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            XsltTransformer transformer = newTextReportTransformer(bos);
+            transformer.setInitialContextNode(svrlReport);
+            transformer.transform();
+            result = new StreamResult(bos);
+        } catch (SaxonApiException e) {
+            LOGR.warning(e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Creates a transformer that renders an SVRL report as plain text. The
+     * transformer may be used as the destination of a validation episode.
+     *
+     * @param out
+     *            The output stream to which the text is written.
+     * @return A transformer that is not thread-safe.
+     */
+    static XsltTransformer newTextReportTransformer(OutputStream out) {
+        XsltTransformer transformer = SchematronSkeleton.getTextReportStylesheet().load();
+        Serializer serializer = new Serializer();
+        serializer.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "yes");
+        serializer.setOutputStream(out);
+        transformer.setDestination(serializer);
+        return transformer;
+    }
+}
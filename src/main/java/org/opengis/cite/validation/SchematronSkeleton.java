@@ -0,0 +1,142 @@
+package org.opengis.cite.validation;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xml.resolver.CatalogManager;
+import org.apache.xml.resolver.tools.CatalogResolver;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.FeatureKeys;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltExecutable;
+
+/**
+ * A process-wide registry of the ISO Schematron skeleton stylesheets used to
+ * preprocess a schema, along with the stylesheet that renders an SVRL report
+ * as plain text. The stylesheets are compiled once, when first needed, by a
+ * Processor that is shared by all compiled schemas. A compiled stylesheet is
+ * thread-safe.
+ */
+final class SchematronSkeleton {
+
+    private static final Logger LOGR = Logger.getLogger(SchematronSkeleton.class.getPackage().getName());
+    private static final String INCLUDE_XSLT = "iso_dsdl_include.xsl";
+    private static final String ABSTRACT_EXPAND_XSLT = "iso_abstract_expand.xsl";
+    private static final String SVRL_REPORT_XSLT = "iso_svrl_xslt2.xsl";
+    private static final String TEXT_REPORT_XSLT = "svrl2text.xsl";
+
+    private SchematronSkeleton() {
+    }
+
+    /**
+     * Returns the shared processor. Its underlying Configuration is set to
+     * silently recover from dynamic errors.
+     *
+     * @return A Processor object.
+     */
+    static Processor getProcessor() {
+        return ProcessorHolder.PROCESSOR;
+    }
+
+    /**
+     * Creates a stylesheet compiler that resolves imported and included
+     * resources using the entity catalog. The catalog resolver is created
+     * once and shared by all compilers.
+     *
+     * @return A new XsltCompiler object.
+     */
+    static XsltCompiler newXsltCompiler() {
+        XsltCompiler compiler = getProcessor().newXsltCompiler();
+        compiler.setURIResolver(CatalogHolder.RESOLVER);
+        return compiler;
+    }
+
+    /**
+     * Returns the compiled stylesheet that handles inclusions (sch:include and
+     * xi:include elements).
+     *
+     * @return The compiled iso_dsdl_include.xsl stylesheet.
+     */
+    static XsltExecutable getIncludeStylesheet() {
+        return StylesheetHolder.INCLUDE;
+    }
+
+    /**
+     * Returns the compiled stylesheet that expands abstract patterns.
+     *
+     * @return The compiled iso_abstract_expand.xsl stylesheet.
+     */
+    static XsltExecutable getAbstractExpandStylesheet() {
+        return StylesheetHolder.ABSTRACT_EXPAND;
+    }
+
+    /**
+     * Returns the compiled stylesheet that generates an SVRL-producing
+     * stylesheet from a preprocessed schema.
+     *
+     * @return The compiled iso_svrl_xslt2.xsl stylesheet.
+     */
+    static XsltExecutable getSvrlStylesheet() {
+        return StylesheetHolder.SVRL_REPORT;
+    }
+
+    /**
+     * Returns the compiled stylesheet that transforms an SVRL report to plain
+     * text.
+     *
+     * @return The compiled svrl2text.xsl stylesheet.
+     */
+    static XsltExecutable getTextReportStylesheet() {
+        return TextReportHolder.TEXT_REPORT;
+    }
+
+    private static XsltExecutable compile(XsltCompiler compiler, String resource) {
+        try {
+            return compiler.compile(new StreamSource(SchematronSkeleton.class.getResourceAsStream(resource)));
+        } catch (SaxonApiException e) {
+            throw new RuntimeException(e); // unlikely using bundled stylesheets
+        }
+    }
+
+    private static final class ProcessorHolder {
+
+        static final Processor PROCESSOR = createProcessor();
+
+        private static Processor createProcessor() {
+            Processor processor = new Processor(false);
+            processor.setConfigurationProperty(FeatureKeys.RECOVERY_POLICY, Configuration.RECOVER_SILENTLY);
+            return processor;
+        }
+    }
+
+    private static final class CatalogHolder {
+
+        static final CatalogResolver RESOLVER = new CatalogResolver(
+                new CatalogManager("org/opengis/cite/validation/CatalogManager.properties"));
+    }
+
+    private static final class StylesheetHolder {
+
+        static final XsltExecutable INCLUDE;
+        static final XsltExecutable ABSTRACT_EXPAND;
+        static final XsltExecutable SVRL_REPORT;
+
+        static {
+            XsltCompiler compiler = newXsltCompiler();
+            INCLUDE = compile(compiler, INCLUDE_XSLT);
+            ABSTRACT_EXPAND = compile(compiler, ABSTRACT_EXPAND_XSLT);
+            SVRL_REPORT = compile(compiler, SVRL_REPORT_XSLT);
+            LOGR.log(Level.FINE, "Compiled Schematron skeleton stylesheets.");
+        }
+    }
+
+    private static final class TextReportHolder {
+
+        static final XsltExecutable TEXT_REPORT = compile(getProcessor().newXsltCompiler(), TEXT_REPORT_XSLT);
+    }
+}
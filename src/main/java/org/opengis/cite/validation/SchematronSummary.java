@@ -0,0 +1,126 @@
+package org.opengis.cite.validation;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A summary of the rule violations detected in a single Schematron validation
+ * episode. No validation report is retained, only counters. Instances of this
+ * class are immutable.
+ *
+ * @see CompiledSchematron#summarize(javax.xml.transform.Source, Map, boolean)
+ */
+public final class SchematronSummary {
+
+    private final int failedAssertCount;
+    private final int successfulReportCount;
+    private final Map<String, Integer> violationsByPattern;
+    private final Map<String, Integer> violationsByRule;
+    private final Map<String, Integer> violationsByAssertion;
+    private final boolean terminated;
+
+    SchematronSummary(int failedAssertCount, int successfulReportCount, Map<String, Integer> violationsByPattern,
+            Map<String, Integer> violationsByRule, Map<String, Integer> violationsByAssertion, boolean terminated) {
+        this.failedAssertCount = failedAssertCount;
+        this.successfulReportCount = successfulReportCount;
+        this.violationsByPattern = Collections.unmodifiableMap(violationsByPattern);
+        this.violationsByRule = Collections.unmodifiableMap(violationsByRule);
+        this.violationsByAssertion = Collections.unmodifiableMap(violationsByAssertion);
+        this.terminated = terminated;
+    }
+
+    /**
+     * Get the number of violations (failed assertions and successful reports)
+     * for the validation episode.
+     *
+     * @return An {@code int} value equal to or greater than zero.
+     */
+    public int getRuleViolationCount() {
+        return failedAssertCount + successfulReportCount;
+    }
+
+    /**
+     * Indicates the occurrence of any rule violations.
+     *
+     * @return {@code true} if any rule violations have been detected;
+     *         {@code false} otherwise.
+     */
+    public boolean ruleViolationsDetected() {
+        return getRuleViolationCount() > 0;
+    }
+
+    /**
+     * Get the number of failed assertions (svrl:failed-assert).
+     *
+     * @return An {@code int} value equal to or greater than zero.
+     */
+    public int getFailedAssertCount() {
+        return failedAssertCount;
+    }
+
+    /**
+     * Get the number of successful reports (svrl:successful-report).
+     *
+     * @return An {@code int} value equal to or greater than zero.
+     */
+    public int getSuccessfulReportCount() {
+        return successfulReportCount;
+    }
+
+    /**
+     * Returns the number of violations per pattern. A pattern is identified by
+     * its id, or by its name if it has no id (an anonymous pattern is
+     * identified by the empty string).
+     *
+     * @return A read-only map (in document order) of pattern identifiers to
+     *         violation counts.
+     */
+    public Map<String, Integer> getViolationsByPattern() {
+        return violationsByPattern;
+    }
+
+    /**
+     * Returns the number of violations per rule. A rule is identified by its
+     * id, or by its context expression if it has no id.
+     *
+     * @return A read-only map (in document order) of rule identifiers to
+     *         violation counts.
+     */
+    public Map<String, Integer> getViolationsByRule() {
+        return violationsByRule;
+    }
+
+    /**
+     * Returns the number of violations per assertion (sch:assert or
+     * sch:report). An assertion is identified by its id, or by its test
+     * expression if it has no id.
+     *
+     * @return A read-only map (in document order) of assertion identifiers to
+     *         violation counts.
+     */
+    public Map<String, Integer> getViolationsByAssertion() {
+        return violationsByAssertion;
+    }
+
+    /**
+     * Indicates whether validation was terminated at the first failed
+     * assertion. If so, the counts only cover the part of the document that
+     * was checked.
+     *
+     * @return {@code true} if validation was terminated early; {@code false}
+     *         otherwise.
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder("SchematronSummary{");
+        str.append("failedAsserts=").append(failedAssertCount);
+        str.append(", successfulReports=").append(successfulReportCount);
+        str.append(", terminated=").append(terminated);
+        str.append(", byAssertion=").append(violationsByAssertion).append('}');
+        return str.toString();
+    }
+}
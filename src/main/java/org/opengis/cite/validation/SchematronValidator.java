@@ -1,47 +1,22 @@
 package org.opengis.cite.validation;
 
-import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.Executor;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
-import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
 
-import org.apache.xml.resolver.CatalogManager;
-import org.apache.xml.resolver.tools.CatalogResolver;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 
-import net.sf.saxon.Configuration;
-import net.sf.saxon.FeatureKeys;
-import net.sf.saxon.dom.NodeOverNodeInfo;
-import net.sf.saxon.om.NodeInfo;
-import net.sf.saxon.s9api.Processor;
-import net.sf.saxon.s9api.QName;
-import net.sf.saxon.s9api.SaxonApiException;
-import net.sf.saxon.s9api.Serializer;
-import net.sf.saxon.s9api.XPathCompiler;
-import net.sf.saxon.s9api.XPathExecutable;
-import net.sf.saxon.s9api.XPathSelector;
-import net.sf.saxon.s9api.XdmAtomicValue;
-import net.sf.saxon.s9api.XdmDestination;
-import net.sf.saxon.s9api.XsltCompiler;
-import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.Destination;
+import net.sf.saxon.s9api.SAXDestination;
 import net.sf.saxon.s9api.XsltTransformer;
 
 /**
@@ -49,20 +24,24 @@ import net.sf.saxon.s9api.XsltTransformer;
  * defined in an ISO Schematron (ISO 19757-3) schema. The schema may incorporate
  * abstract patterns and inclusions (sch:include and xi:include elements).
  *
+ * <p>
+ * A validator is not thread-safe. Several validators may share a
+ * {@link CompiledSchematron} schema (see
+ * {@link CompiledSchematron#newValidator()}), or the compiled schema may be
+ * used directly to validate documents concurrently.
+ * </p>
+ *
  * @see <a href=
  *      "http://standards.iso.org/ittf/PubliclyAvailableStandards/c040833_ISO_IEC_19757-3_2006(E).zip"
  *      >ISO 19757-3:2006</a>
  */
 public class SchematronValidator {
 
-    private static final Logger LOGR = Logger.getLogger(SchematronValidator.class.getPackage().getName());
     public static final String ISO_SCHEMATRON_SVRL_NS = "http://purl.oclc.org/dsdl/svrl";
-    private static final String INCLUDE_XSLT = "iso_dsdl_include.xsl";
-    private static final String ABSTRACT_EXPAND_XSLT = "iso_abstract_expand.xsl";
-    private static final String SVRL_REPORT_XSLT = "iso_svrl_xslt2.xsl";
-    private Processor processor;
+    private final CompiledSchematron schematron;
     private XsltTransformer transformer;
     private int totalRuleViolations = 0;
+    private Map<String, String> parameters;
 
     /**
      * Constructs a validator for the given Schematron schema with the default
@@ -94,13 +73,44 @@ public class SchematronValidator {
      *             the schema.
      */
     public SchematronValidator(Source schema, String phase) throws Exception {
-        if (schema == null) {
-            throw new IllegalArgumentException("No schema Source provided.");
-        }
-        processor = new Processor(false);
-        processor.setConfigurationProperty(FeatureKeys.RECOVERY_POLICY, Configuration.RECOVER_SILENTLY);
-        XsltExecutable xslt = compileSchema(schema, phase);
-        this.transformer = xslt.load();
+        this(schema, phase, null);
+    }
+
+    /**
+     * Constructs a validator for the given Schematron schema and phase (pattern
+     * set). The stylesheet generated by preprocessing the schema is obtained
+     * from (or added to) the given cache; preprocessing is skipped if the
+     * cache holds a current entry for the schema.
+     *
+     * @param schema
+     *            The Source that represents the schema.
+     * @param phase
+     *            The active phase; if null, the default phase is enabled (all
+     *            patterns are active if no default is specified).
+     * @param cache
+     *            A persistent cache of compiled schemas; if null, the schema is
+     *            always preprocessed.
+     * @throws Exception
+     *             If any error occurs while attempting to read or preprocess
+     *             the schema.
+     */
+    public SchematronValidator(Source schema, String phase, SchematronCache cache) throws Exception {
+        this.schematron = new CompiledSchematron(schema, phase, cache);
+        this.transformer = schematron.newTransformer();
+    }
+
+    /**
+     * Constructs a validator for a compiled Schematron schema.
+     *
+     * @param schematron
+     *            A compiled Schematron schema.
+     * @param transformer
+     *            A transformer created by the compiled schema.
+     * @see CompiledSchematron#newValidator()
+     */
+    SchematronValidator(CompiledSchematron schematron, XsltTransformer transformer) {
+        this.schematron = schematron;
+        this.transformer = transformer;
     }
 
     /**
@@ -116,7 +126,9 @@ public class SchematronValidator {
     public ValidationErrorHandler validateSchema(Source schema) throws IOException {
         RelaxNGValidator rngValidator;
         try {
-            rngValidator = new RelaxNGValidator(getClass().getResource("rnc/schematron-grammar.rnc"));
+            Schema rngSchema = RelaxNGSchemaCache.getSharedCache().getSchema(
+                    getClass().getResource("rnc/schematron-grammar.rnc"));
+            rngValidator = RelaxNGValidator.newValidator(rngSchema);
             rngValidator.validate(schema);
         } catch (SAXException e) {
             throw new RuntimeException(e); // unlikely using bundled grammar
@@ -152,11 +164,93 @@ public class SchematronValidator {
      *            names and values.
      */
     public void setParameters(Map<String, String> params) {
-        for (Map.Entry<String, String> entry : params.entrySet()) {
-            String paramName = entry.getKey();
-            String paramValue = entry.getValue();
-            this.transformer.setParameter(new QName(paramName), new XdmAtomicValue(paramValue));
+        CompiledSchematron.setParameters(this.transformer, params);
+        if (null == this.parameters) {
+            this.parameters = new HashMap<String, String>();
         }
+        this.parameters.putAll(params);
+    }
+
+    /**
+     * Validates a collection of XML documents in parallel using the compiled
+     * schema. Any parameters set on this validator also apply to these
+     * documents. The rule violation count of this validator is not affected.
+     *
+     * @param xmlSources
+     *            The XML resources to validate.
+     * @param executor
+     *            The executor that runs validation tasks (for example, a
+     *            thread pool).
+     * @param parallelism
+     *            The maximum number of documents being validated concurrently
+     *            (a positive integer); this also bounds the number of results
+     *            that are waiting to be consumed.
+     * @return An Iterator over the results, which are supplied in completion
+     *         order. The iterator is not thread-safe.
+     * @see CompiledSchematron#validateAll(Iterable, Map, Executor, int)
+     */
+    public Iterator<SchematronResult> validateAll(Iterable<? extends Source> xmlSources, Executor executor,
+            int parallelism) {
+        return schematron.validateAll(xmlSources, parameters, executor, parallelism);
+    }
+
+    /**
+     * Validates all XML documents (files with the extension ".xml") in the
+     * given directory in parallel. Subdirectories are not searched.
+     *
+     * @param directory
+     *            A directory containing XML documents.
+     * @param executor
+     *            The executor that runs validation tasks.
+     * @param parallelism
+     *            The maximum number of documents being validated concurrently
+     *            (a positive integer).
+     * @return An Iterator over the results, which are supplied in completion
+     *         order.
+     * @throws IOException
+     *             If the directory cannot be read.
+     */
+    public Iterator<SchematronResult> validateAll(File directory, Executor executor, int parallelism)
+            throws IOException {
+        return schematron.validateAll(directory, parameters, executor, parallelism);
+    }
+
+    /**
+     * Counts the rule violations in the specified XML source document. No
+     * validation report is produced; use this method if only the number of
+     * violations is of interest.
+     *
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @return The number of violations (failed assertions and successful
+     *         reports).
+     * @see #getRuleViolationCount()
+     */
+    public int countRuleViolations(Source xmlSource) {
+        this.totalRuleViolations = 0;
+        this.totalRuleViolations = schematron.countRuleViolations(transformer, xmlSource);
+        return totalRuleViolations;
+    }
+
+    /**
+     * Summarizes the rule violations in the specified XML source document. No
+     * validation report is produced; violations are tallied per pattern, rule,
+     * and assertion.
+     *
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param failFast
+     *            If true, validation is terminated as soon as an assertion
+     *            fails.
+     * @return A summary of the validation results.
+     */
+    public SchematronSummary summarize(Source xmlSource, boolean failFast) {
+        this.totalRuleViolations = 0;
+        SchematronSummary summary = schematron.summarize(transformer, xmlSource, failFast);
+        this.totalRuleViolations = summary.getRuleViolationCount();
+        return summary;
     }
 
     /**
@@ -187,182 +281,68 @@ public class SchematronValidator {
      *         results.
      */
     public Result validate(Source xmlSource, boolean svrlReport) {
-        if (xmlSource == null) {
-            throw new IllegalArgumentException("Nothing to validate.");
-        }
-        if (DOMSource.class.isInstance(xmlSource)) {
-            // Saxon XsltTransformer will reject DOMSource wrapping an Element
-            Node node = DOMSource.class.cast(xmlSource).getNode();
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Document doc = importElement((Element) node);
-                xmlSource = new DOMSource(doc, xmlSource.getSystemId());
-            }
-        }
         this.totalRuleViolations = 0;
-        XdmDestination results = new XdmDestination();
-        try {
-            transformer.setSource(xmlSource);
-            transformer.setDestination(results);
-            transformer.transform();
-        } catch (SaxonApiException e1) {
-            LOGR.warning(e1.getMessage());
-        }
-        this.totalRuleViolations = countRuleViolations(results);
-        if (LOGR.isLoggable(Level.FINER)) {
-            LOGR.log(Level.FINER, "{0} Schematron rule violations found", totalRuleViolations);
-            writeResultsToTempFile(results);
-        }
-        NodeInfo nodeInfo = results.getXdmNode().getUnderlyingNode();
+        SchematronResult results = schematron.validate(transformer, xmlSource);
+        this.totalRuleViolations = results.getRuleViolationCount();
         Result result = null;
         if (svrlReport) {
-            result = new DOMResult(NodeOverNodeInfo.wrap(nodeInfo));
+            result = results.toDOMResult();
         } else {
-            result = generateTextResult(results.getXdmNode().asSource());
+            result = results.toTextResult();
         }
         return result;
     }
 
     /**
-     * Transforms a standard SVRL report to a plain text representation that
-     * only includes rule violations (positive or negative assertion failures).
-     * 
-     * @param svrlSource
-     *            The source for reading the SVRL report.
-     * @return A StreamResult holding the plain text output (as a byte stream),
-     *         or null if the transformation failed.
-     */
-    StreamResult generateTextResult(Source svrlSource) {
-        XsltCompiler compiler = processor.newXsltCompiler();
-        StreamResult result = null;
-        try {
-            XsltExecutable exec = compiler.compile(new StreamSource(getClass().getResourceAsStream("svrl2text.xsl")));
-            XsltTransformer transformer = exec.load();
-            transformer.setSource(svrlSource);
-            Serializer serializer = new Serializer();
-            serializer.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "yes");
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            serializer.setOutputStream(bos);
-            transformer.setDestination(serializer);
-            transformer.transform();
-            result = new StreamResult(bos);
-        } catch (SaxonApiException e) {
-            LOGR.warning(e.getMessage());
-        }
-        return result;
-    }
-
-    /**
-     * Creates an immutable representation of a compiled stylesheet that will
-     * generate an SVRL representation of the validation results when run
-     * against an instance document.
+     * Validates the specified XML source document, writing the results to the
+     * given output stream as they are produced. The results are represented
+     * either as an SVRL report or as plain text. The stream is not closed.
      *
-     * @param schema
-     *            A Source to read a Schematron schema.
-     * @param phase
-     *            The name of the active phase; if not specified, the default
-     *            phase will be used (all patterns are active if no default is
-     *            specified).
-     * @return A compiled stylesheet ready for execution.
-     * @throws Exception
-     *             If the schema cannot be compiled for any reason.
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param out
+     *            The output stream to which the results are written.
+     * @param svrlReport
+     *            Produce an SVRL (XML) report; if false, the results are in
+     *            plain text.
      */
-    final XsltExecutable compileSchema(Source schema, String phase) throws Exception {
-        XsltCompiler compiler = processor.newXsltCompiler();
-        CatalogManager manager = new CatalogManager("org/opengis/cite/validation/CatalogManager.properties");
-        compiler.setURIResolver(new CatalogResolver(manager));
-        XsltExecutable includeXslt = compiler
-                .compile(new StreamSource(SchematronValidator.class.getResourceAsStream(INCLUDE_XSLT)));
-        XsltExecutable abstractXslt = compiler
-                .compile(new StreamSource(SchematronValidator.class.getResourceAsStream(ABSTRACT_EXPAND_XSLT)));
-        XsltExecutable svrlXslt = compiler
-                .compile(new StreamSource(SchematronValidator.class.getResourceAsStream(SVRL_REPORT_XSLT)));
-        // Set up pre-processing chain to enable:
-        // 1. Inclusions
-        // 2. Abstract patterns
-        // 3. SVRL report
-        XsltTransformer stage1Transformer = includeXslt.load();
-        XsltTransformer stage2Transformer = abstractXslt.load();
-        XsltTransformer stage3Transformer = svrlXslt.load();
-        stage1Transformer.setSource(schema);
-        stage1Transformer.setDestination(stage2Transformer);
-        stage2Transformer.setDestination(stage3Transformer);
-        XdmDestination chainResult = new XdmDestination();
-        stage3Transformer.setDestination(chainResult);
-        if (null != phase && !phase.isEmpty()) {
-            stage3Transformer.setParameter(new QName("phase"), new XdmAtomicValue(phase));
-        }
-        // redirect messages written to System.err by default message emitter
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        PrintStream console = System.err;
-        try {
-            System.setErr(new PrintStream(baos));
-            stage1Transformer.transform();
-        } catch (SaxonApiException e) {
-            throw new Exception(baos.toString() + e.getMessage(), e.getCause());
-        } finally {
-            System.setErr(console);
-        }
-        XsltExecutable compiledStylesheet = compiler.compile(chainResult.getXdmNode().asSource());
-        return compiledStylesheet;
-    }
-
-    private void writeResultsToTempFile(XdmDestination xdmResult) {
-        File temp = null;
-        try {
-            temp = File.createTempFile("SchematronValidator-dump-", ".xml");
-            BufferedWriter out = new BufferedWriter(new FileWriter(temp));
-            out.write(xdmResult.getXdmNode().toString());
-            out.close();
-        } catch (IOException e) {
-            LOGR.warning(e.getMessage());
-        }
-        if (temp.exists()) {
-            LOGR.log(Level.FINER, "Dumped Schematron results to {0}", temp.getAbsolutePath());
-        }
+    public void validate(Source xmlSource, OutputStream out, boolean svrlReport) {
+        validate(xmlSource, CompiledSchematron.newStreamDestination(out, svrlReport));
     }
 
     /**
-     * Counts all rule violations: failed asserts and successful reports).
+     * Validates the specified XML source document, reporting the SVRL results
+     * to the given ContentHandler as they are produced.
      *
-     * @param results
-     *            The validation results (svrl:schematron-output).
-     * @return An integer value.
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param handler
+     *            The ContentHandler that receives the SVRL report.
      */
-    private int countRuleViolations(XdmDestination results) {
-        XPathCompiler xpath = processor.newXPathCompiler();
-        xpath.declareNamespace("svrl", ISO_SCHEMATRON_SVRL_NS);
-        XdmAtomicValue totalCount = null;
-        try {
-            XPathExecutable exe = xpath.compile("count(//svrl:failed-assert) + count(//svrl:successful-report)");
-            XPathSelector selector = exe.load();
-            selector.setContextItem(results.getXdmNode());
-            totalCount = (XdmAtomicValue) selector.evaluateSingle();
-        } catch (SaxonApiException e) {
-            LOGR.warning(e.getMessage());
+    public void validate(Source xmlSource, ContentHandler handler) {
+        if (null == handler) {
+            throw new IllegalArgumentException("No ContentHandler provided.");
         }
-        return Integer.parseInt(totalCount.getValue().toString());
+        validate(xmlSource, new SAXDestination(handler));
     }
 
     /**
-     * Creates a DOM Document with the given Element as the document element. A
-     * deep copy of the element is imported--the source element is not altered.
+     * Validates the specified XML source document, writing the SVRL report to
+     * the given destination as it is produced.
      *
-     * @param elem
-     *            An Element node.
-     * @return A Document node.
+     * @param xmlSource
+     *            The XML resource to validate. A DOMSource must wrap a Document
+     *            or an Element node.
+     * @param destination
+     *            The destination that receives the SVRL report.
      */
-    Document importElement(Element elem) {
-        DocumentBuilder docBuilder = null;
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            docBuilder = factory.newDocumentBuilder();
-        } catch (ParserConfigurationException ex) {
-            LOGR.log(Level.WARNING, null, ex);
+    public void validate(Source xmlSource, Destination destination) {
+        if (null == destination) {
+            throw new IllegalArgumentException("No destination provided.");
         }
-        Document newDoc = docBuilder.newDocument();
-        Node newNode = newDoc.importNode(elem, true);
-        newDoc.appendChild(newNode);
-        return newDoc;
+        this.totalRuleViolations = 0;
+        this.totalRuleViolations = schematron.validate(transformer, xmlSource, destination);
     }
 }
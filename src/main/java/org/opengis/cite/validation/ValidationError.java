@@ -120,6 +120,16 @@ public class ValidationError {
         return severity;
     }
 
+    /**
+     * Returns information about the location of this error.
+     * 
+     * @return An ErrorLocator object, or null if no location information is
+     *         available.
+     */
+    ErrorLocator getLocator() {
+        return locator;
+    }
+
     /**
      * Returns the line number where the error is located.
      * 
@@ -1,9 +1,12 @@
 package org.opengis.cite.validation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import org.w3c.dom.DOMError;
 import org.w3c.dom.DOMErrorHandler;
 import org.w3c.dom.DOMLocator;
@@ -14,6 +17,14 @@ import org.xml.sax.SAXParseException;
  * A SAX and DOM error handler that collects validation errors raised while
  * verifying the structure and content of XML entities.
  *
+ * <p>
+ * The number of errors retained may be limited (in total and per distinct
+ * message), and errors below a severity threshold may be counted without being
+ * retained. The totals for each severity level are always exact. Errors are
+ * stored compactly: messages and other strings are deduplicated, and
+ * locations are kept in primitive arrays.
+ * </p>
+ *
  */
 public class ValidationErrorHandler implements ErrorHandler, DOMErrorHandler,
         Iterable<ValidationError> {
@@ -27,31 +38,175 @@ public class ValidationErrorHandler implements ErrorHandler, DOMErrorHandler,
      */
     private String schemaLanguage;
     /**
-     * Collection of reported validation errors.
+     * Indicates that an error has no location information.
+     */
+    private static final int NO_LOCATOR = -2;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final ErrorSeverity[] SEVERITIES = ErrorSeverity.values();
+    /**
+     * The maximum number of errors retained.
+     */
+    private int maxErrors = Integer.MAX_VALUE;
+    /**
+     * The maximum number of errors retained with the same message.
+     */
+    private int maxErrorsPerMessage = Integer.MAX_VALUE;
+    /**
+     * The lowest severity level of retained errors.
+     */
+    private ErrorSeverity severityThreshold = ErrorSeverity.WARNING;
+    /**
+     * Deduplicated strings (messages, diagnostics, pointers).
+     */
+    private List<String> strings;
+    private Map<String, Integer> stringIds;
+    /**
+     * Number of retained errors having each (message) string.
+     */
+    private int[] messageCounts;
+    /**
+     * Retained errors, stored column-wise.
+     */
+    private int size;
+    private byte[] severities;
+    private int[] messages;
+    private int[] diagnostics;
+    private int[] pointers;
+    private int[] lineNumbers;
+    private int[] columnNumbers;
+    /**
+     * Number of errors reported for each severity level.
      */
-    private List<ValidationError> errors;
+    private long[] totals;
 
     public ValidationErrorHandler() {
         this.buf = new StringBuffer();
-        this.errors = new ArrayList<ValidationError>();
+        this.totals = new long[SEVERITIES.length];
+        clearErrors();
+    }
+
+    /**
+     * Constructs an exact copy of the given handler, including its limits,
+     * the retained errors, and the totals for each severity level.
+     *
+     * @param handler The handler to copy.
+     */
+    public ValidationErrorHandler(ValidationErrorHandler handler) {
+        this.buf = new StringBuffer();
+        this.schemaLanguage = handler.schemaLanguage;
+        this.maxErrors = handler.maxErrors;
+        this.maxErrorsPerMessage = handler.maxErrorsPerMessage;
+        this.severityThreshold = handler.severityThreshold;
+        this.strings = new ArrayList<String>(handler.strings);
+        this.stringIds = new HashMap<String, Integer>(handler.stringIds);
+        this.messageCounts = handler.messageCounts.clone();
+        this.size = handler.size;
+        this.severities = handler.severities.clone();
+        this.messages = handler.messages.clone();
+        this.diagnostics = handler.diagnostics.clone();
+        this.pointers = handler.pointers.clone();
+        this.lineNumbers = handler.lineNumbers.clone();
+        this.columnNumbers = handler.columnNumbers.clone();
+        this.totals = handler.totals.clone();
     }
 
     /**
-     * Indicates whether any validation errors have been detected.
+     * Indicates whether any validation errors have been detected (including
+     * errors that were not retained).
      *
      * @return true if validation errors were detected; false otherwise.
      */
     public boolean errorsDetected() {
-        return !errors.isEmpty();
+        return getTotalErrorCount() > 0;
     }
 
     /**
-     * Reports the number of errors detected during a validation episode.
+     * Reports the number of errors retained by this handler during a
+     * validation episode. This may be less than the number of errors detected
+     * if limits have been set.
      *
      * @return the number of errors.
+     *
+     * @see #getTotalErrorCount()
      */
     public int getErrorCount() {
-        return errors.size();
+        return size;
+    }
+
+    /**
+     * Reports the total number of errors detected, whether or not they were
+     * retained.
+     *
+     * @return the total number of errors.
+     */
+    public long getTotalErrorCount() {
+        long total = 0;
+        for (long count : totals) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Reports the total number of errors with the given severity that were
+     * detected, whether or not they were retained.
+     *
+     * @param severity The severity level.
+     * @return the number of errors with the given severity.
+     */
+    public long getErrorCount(ErrorSeverity severity) {
+        return totals[severity.ordinal()];
+    }
+
+    /**
+     * Reports the number of errors that were detected but not retained.
+     *
+     * @return the number of discarded errors.
+     */
+    public long getDiscardedErrorCount() {
+        return getTotalErrorCount() - size;
+    }
+
+    /**
+     * Sets the maximum number of errors retained by this handler. Further
+     * errors are counted but otherwise discarded. The default is unlimited.
+     *
+     * @param maxErrors A positive integer.
+     */
+    public void setMaxErrors(int maxErrors) {
+        if (maxErrors < 1) {
+            throw new IllegalArgumentException("maxErrors must be a positive integer: " + maxErrors);
+        }
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Sets the maximum number of errors with the same message retained by this
+     * handler. Further errors with that message are counted but otherwise
+     * discarded. The default is unlimited.
+     *
+     * @param maxErrorsPerMessage A positive integer.
+     */
+    public void setMaxErrorsPerMessage(int maxErrorsPerMessage) {
+        if (maxErrorsPerMessage < 1) {
+            throw new IllegalArgumentException(
+                    "maxErrorsPerMessage must be a positive integer: " + maxErrorsPerMessage);
+        }
+        this.maxErrorsPerMessage = maxErrorsPerMessage;
+    }
+
+    /**
+     * Sets the lowest severity level of errors retained by this handler. Less
+     * severe errors are counted but otherwise discarded. The default is
+     * {@link ErrorSeverity#WARNING} (all errors are retained).
+     *
+     * @param severityThreshold The lowest severity level to retain.
+     */
+    public void setSeverityThreshold(ErrorSeverity severityThreshold) {
+        if (null == severityThreshold) {
+            throw new IllegalArgumentException("severityThreshold is required.");
+        }
+        this.severityThreshold = severityThreshold;
     }
 
     /**
@@ -103,10 +258,8 @@ public class ValidationErrorHandler implements ErrorHandler, DOMErrorHandler,
      */
     private void addSAXError(ErrorSeverity severity, SAXParseException spex) {
 
-        ValidationError error = new ValidationError(severity,
-                spex.getMessage(), spex.getLineNumber(),
-                spex.getColumnNumber(), null);
-        errors.add(error);
+        store(severity, spex.getMessage(), null, spex.getLineNumber(),
+                spex.getColumnNumber(), null, true);
     }
 
     /**
@@ -118,9 +271,8 @@ public class ValidationErrorHandler implements ErrorHandler, DOMErrorHandler,
      * source document.
      */
     private void addDOMError(ErrorSeverity severity, String msg, DOMLocator loc) {
-        ValidationError error = new ValidationError(severity, msg,
-                loc.getLineNumber(), loc.getColumnNumber(), "#");
-        errors.add(error);
+        store(severity, msg, null, loc.getLineNumber(), loc.getColumnNumber(),
+                "#", true);
     }
 
     /*
@@ -170,9 +322,17 @@ public class ValidationErrorHandler implements ErrorHandler, DOMErrorHandler,
      */
     public void addError(ErrorSeverity severity, String msg, String diag,
             ErrorLocator locator) {
-        ValidationError error = new ValidationError(severity, msg, diag,
-                locator);
-        errors.add(error);
+        store(severity, msg, diag, locator);
+    }
+
+    /**
+     * Adds the given validation error to this handler.
+     *
+     * @param error A <code>ValidationError</code> object.
+     */
+    public void addError(ValidationError error) {
+        store(error.getSeverity(), error.getMessage(), error.getDiagnostics(),
+                error.getLocator());
     }
 
     /**
@@ -183,16 +343,145 @@ public class ValidationErrorHandler implements ErrorHandler, DOMErrorHandler,
      * are not necessarily related).
      */
     public void addErrors(Collection<ValidationError> errors) {
-        this.errors.addAll(errors);
+        for (ValidationError error : errors) {
+            addError(error);
+        }
+    }
+
+    /**
+     * Adds the errors collected by another handler to this handler. The totals
+     * for each severity level are carried over exactly (including errors the
+     * other handler did not retain); the limits of this handler apply to the
+     * errors that are retained.
+     *
+     * @param handler The handler whose errors are added.
+     */
+    public void addErrors(ValidationErrorHandler handler) {
+        for (int i = 0; i < handler.size; i++) {
+            int pointerId = handler.pointers[i];
+            int diagId = handler.diagnostics[i];
+            retain(SEVERITIES[handler.severities[i]],
+                    handler.strings.get(handler.messages[i]),
+                    (diagId >= 0) ? handler.strings.get(diagId) : null,
+                    handler.lineNumbers[i], handler.columnNumbers[i],
+                    (pointerId >= 0) ? handler.strings.get(pointerId) : null,
+                    pointerId != NO_LOCATOR);
+        }
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += handler.totals[i];
+        }
     }
 
     /**
-     * Gets the errors reported to this handler.
+     * Gets the errors retained by this handler. Error details are stored in a
+     * compact form, so the list and its elements are created by each call.
      *
-     * @return A list containing error descriptions.
+     * @return A new (modifiable) list containing error descriptions. Unlike
+     *         earlier versions, it is a copy: modifying it does not affect the
+     *         errors held by this handler (use {@link #addError} or
+     *         {@link #reset} for that), and successive calls return distinct
+     *         ValidationError objects.
      */
     public List<ValidationError> getErrors() {
-        return this.errors;
+        List<ValidationError> errors = new ArrayList<ValidationError>(size);
+        for (int i = 0; i < size; i++) {
+            errors.add(getError(i));
+        }
+        return errors;
+    }
+
+    /**
+     * Records an error, retaining its details unless a limit applies.
+     */
+    private void store(ErrorSeverity severity, String msg, String diag,
+            ErrorLocator locator) {
+        if (null == locator) {
+            store(severity, msg, diag, -1, -1, null, false);
+        } else {
+            store(severity, msg, diag, locator.getLineNumber(),
+                    locator.getColumnNumber(), locator.getPointer(), true);
+        }
+    }
+
+    private void store(ErrorSeverity severity, String msg, String diag,
+            int lineNum, int columnNum, String pointer, boolean located) {
+        totals[severity.ordinal()]++;
+        retain(severity, msg, diag, lineNum, columnNum, pointer, located);
+    }
+
+    /**
+     * Retains the details of an error unless a limit applies. The totals are
+     * not updated.
+     */
+    private void retain(ErrorSeverity severity, String msg, String diag,
+            int lineNum, int columnNum, String pointer, boolean located) {
+        if (size >= maxErrors || severity.compareTo(severityThreshold) < 0) {
+            return;
+        }
+        Integer msgId = stringIds.get(msg);
+        if (null != msgId && messageCounts[msgId] >= maxErrorsPerMessage) {
+            return;
+        }
+        if (size == severities.length) {
+            int capacity = (int) Math.min((long) size * 2, Integer.MAX_VALUE - 8);
+            severities = Arrays.copyOf(severities, capacity);
+            messages = Arrays.copyOf(messages, capacity);
+            diagnostics = Arrays.copyOf(diagnostics, capacity);
+            pointers = Arrays.copyOf(pointers, capacity);
+            lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+            columnNumbers = Arrays.copyOf(columnNumbers, capacity);
+        }
+        int id = (null != msgId) ? msgId : intern(msg);
+        messageCounts[id]++;
+        severities[size] = (byte) severity.ordinal();
+        messages[size] = id;
+        diagnostics[size] = (null != diag) ? intern(diag) : -1;
+        pointers[size] = !located ? NO_LOCATOR : (null != pointer) ? intern(pointer) : -1;
+        lineNumbers[size] = lineNum;
+        columnNumbers[size] = columnNum;
+        size++;
+    }
+
+    /**
+     * Returns the identifier of a string, adding it to the string table if
+     * necessary.
+     */
+    private int intern(String str) {
+        Integer id = stringIds.get(str);
+        if (null == id) {
+            id = strings.size();
+            strings.add(str);
+            stringIds.put(str, id);
+            if (id == messageCounts.length) {
+                messageCounts = Arrays.copyOf(messageCounts, id * 2);
+            }
+        }
+        return id;
+    }
+
+    private ValidationError getError(int index) {
+        String diag = (diagnostics[index] >= 0) ? strings.get(diagnostics[index]) : null;
+        ErrorLocator locator = null;
+        if (pointers[index] != NO_LOCATOR) {
+            String pointer = (pointers[index] >= 0) ? strings.get(pointers[index]) : null;
+            locator = new ErrorLocator(lineNumbers[index], columnNumbers[index], pointer);
+        }
+        return new ValidationError(SEVERITIES[severities[index]],
+                strings.get(messages[index]), diag, locator);
+    }
+
+    private void clearErrors() {
+        this.strings = new ArrayList<String>();
+        this.stringIds = new HashMap<String, Integer>();
+        this.messageCounts = new int[INITIAL_CAPACITY];
+        this.size = 0;
+        this.severities = new byte[INITIAL_CAPACITY];
+        this.messages = new int[INITIAL_CAPACITY];
+        this.diagnostics = new int[INITIAL_CAPACITY];
+        this.pointers = new int[INITIAL_CAPACITY];
+        this.lineNumbers = new int[INITIAL_CAPACITY];
+        this.columnNumbers = new int[INITIAL_CAPACITY];
+        Arrays.fill(this.totals, 0);
     }
 
     /**
@@ -203,7 +492,7 @@ public class ValidationErrorHandler implements ErrorHandler, DOMErrorHandler,
     public String toString() {
 
         buf.setLength(0);
-        for (ValidationError err : errors) {
+        for (ValidationError err : getErrors()) {
             buf.append(err.toString());
         }
         return buf.toString();
@@ -234,7 +523,7 @@ public class ValidationErrorHandler implements ErrorHandler, DOMErrorHandler,
             buf.append("'");
         }
         buf.append(">");
-        for (ValidationError err : errors) {
+        for (ValidationError err : getErrors()) {
             buf.append(err.toXml());
         }
         buf.append("\n</errors>");
@@ -247,15 +536,15 @@ public class ValidationErrorHandler implements ErrorHandler, DOMErrorHandler,
      * @return a read-only error <code>Iterator</code> for this handler.
      */
     public Iterator<ValidationError> iterator() {
-        return errors.iterator();
+        return getErrors().iterator();
     }
 
     /**
-     * Clears all errors and messages.
+     * Clears all errors and messages. The limits are not changed.
      */
     public void reset() {
         buf.setLength(0);
-        errors.clear();
+        clearErrors();
     }
 
     public String getSchemaLanguage() {
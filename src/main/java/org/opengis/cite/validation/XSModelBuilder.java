@@ -1,12 +1,9 @@
 package org.opengis.cite.validation;
 
-import javax.xml.XMLConstants;
+import java.util.Collection;
+
 import javax.xml.validation.Schema;
 
-import org.apache.xerces.jaxp.validation.XSGrammarPoolContainer;
-import org.apache.xerces.xni.grammars.Grammar;
-import org.apache.xerces.xni.grammars.XMLGrammarPool;
-import org.apache.xerces.xni.grammars.XSGrammar;
 import org.apache.xerces.xs.XSModel;
 
 /**
@@ -29,30 +26,47 @@ public class XSModelBuilder {
      *            A Schema representing an XML Schema resource.
      * @param targetNamespace
      *            The target namespace of a schema (an absolute URI).
-     * @return An XSModel object that encapsulates the schema components.
+     * @return An XSModel object that encapsulates the schema components, or
+     *         null if there is no schema with the given target namespace.
+     * 
+     * @see XSModelIndex
      */
     public static XSModel buildXMLSchemaModel(Schema xsd, String targetNamespace) {
         if ((null == targetNamespace) || targetNamespace.isEmpty()) {
             throw new IllegalArgumentException("targetNamespace is required.");
         }
-        Grammar[] grammars = null;
-        if (XSGrammarPoolContainer.class.isAssignableFrom(xsd.getClass())) {
-            XSGrammarPoolContainer poolContainer = XSGrammarPoolContainer.class
-                    .cast(xsd);
-            XMLGrammarPool pool = poolContainer.getGrammarPool();
-            grammars = pool
-                    .retrieveInitialGrammarSet(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        }
-        XSModel xsModel = null;
-        for (int i = 0; i < grammars.length; i++) {
-            XSGrammar xsGrammar = (XSGrammar) grammars[i];
-            if (xsGrammar.getGrammarDescription().getNamespace()
-                    .equals(targetNamespace)) {
-                // root grammar includes all imported schema components
-                xsModel = xsGrammar.toXSModel();
-                break;
-            }
+        return XSModelIndex.getIndex(xsd).getModel(targetNamespace);
+    }
+
+    /**
+     * Builds a single XSModel instance covering several target namespaces. The
+     * model is built only once for a given Schema object and set of
+     * namespaces.
+     * 
+     * @param xsd
+     *            A Schema representing an XML Schema resource.
+     * @param targetNamespaces
+     *            A collection of target namespaces; namespaces not found in the
+     *            schema are ignored.
+     * @return An XSModel object that encapsulates the schema components from
+     *         all of the given namespaces (and those they import).
+     */
+    public static XSModel buildXMLSchemaModel(Schema xsd, Collection<String> targetNamespaces) {
+        if ((null == targetNamespaces) || targetNamespaces.isEmpty()) {
+            throw new IllegalArgumentException("targetNamespaces is required.");
         }
-        return xsModel;
+        return XSModelIndex.getIndex(xsd).getModel(targetNamespaces);
+    }
+
+    /**
+     * Builds an XSModel instance covering all target namespaces in a given
+     * Schema object. The model is built only once for a given Schema object.
+     * 
+     * @param xsd
+     *            A Schema representing an XML Schema resource.
+     * @return An XSModel object that encapsulates all schema components.
+     */
+    public static XSModel buildXMLSchemaModel(Schema xsd) {
+        return XSModelIndex.getIndex(xsd).getModel();
     }
 }
@@ -0,0 +1,309 @@
+package org.opengis.cite.validation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.validation.Schema;
+
+import org.apache.xerces.impl.xs.SchemaGrammar;
+import org.apache.xerces.impl.xs.XSModelImpl;
+import org.apache.xerces.jaxp.validation.XSGrammarPoolContainer;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xs.XSConstants;
+import org.apache.xerces.xs.XSElementDeclaration;
+import org.apache.xerces.xs.XSModel;
+import org.apache.xerces.xs.XSNamedMap;
+import org.apache.xerces.xs.XSObject;
+import org.apache.xerces.xs.XSTypeDefinition;
+
+/**
+ * An index of the global components in a compiled W3C XML Schema. It is
+ * built once per {@link Schema} object (see {@link #getIndex(Schema)}) and
+ * provides constant-time lookups of:
+ * <ul>
+ * <li>the {@link XSModel} for a target namespace;</li>
+ * <li>a merged XSModel for a set of target namespaces (built once per set);</li>
+ * <li>element declarations and type definitions by qualified name;</li>
+ * <li>the members of a substitution group (direct or indirect);</li>
+ * <li>the types derived from a base type (directly or indirectly).</li>
+ * </ul>
+ *
+ * <p>
+ * An index may be shared by any number of threads. Its lookup tables are
+ * filled from a single model of the complete schema set; the model for an
+ * individual target namespace is only built when it is requested.
+ * </p>
+ */
+public final class XSModelIndex {
+
+    private static final Map<Schema, FutureTask<XSModelIndex>> INDEXES = new WeakHashMap<Schema, FutureTask<XSModelIndex>>();
+    private final Map<String, SchemaGrammar> grammars = new LinkedHashMap<String, SchemaGrammar>();
+    private final ConcurrentMap<String, XSModel> models = new ConcurrentHashMap<String, XSModel>();
+    private final Map<Set<String>, XSModel> mergedModels = new HashMap<Set<String>, XSModel>();
+    private final XSModel completeModel;
+    private final Map<QName, XSElementDeclaration> elements = new HashMap<QName, XSElementDeclaration>();
+    private final Map<QName, XSTypeDefinition> types = new HashMap<QName, XSTypeDefinition>();
+    private final Map<QName, List<XSElementDeclaration>> substitutionGroups = new HashMap<QName, List<XSElementDeclaration>>();
+    private final Map<QName, List<XSTypeDefinition>> derivedTypes = new HashMap<QName, List<XSTypeDefinition>>();
+
+    /**
+     * Returns the index for the given schema, building it if necessary. The
+     * index is retained as long as the schema is reachable. An index is built
+     * only once, by the first thread that requests it; other threads
+     * requesting the same index wait for it to be completed, while indexes
+     * for other schemas remain available.
+     *
+     * @param xsd
+     *            A Schema object produced by the Xerces schema factory (such
+     *            as one compiled by {@link XmlSchemaCompiler}).
+     * @return The XSModelIndex for the schema.
+     */
+    public static XSModelIndex getIndex(Schema xsd) {
+        if (!(xsd instanceof XSGrammarPoolContainer)) {
+            throw new IllegalArgumentException("Not a Xerces schema: " + xsd);
+        }
+        FutureTask<XSModelIndex> task;
+        boolean builder = false;
+        synchronized (INDEXES) {
+            task = INDEXES.get(xsd);
+            if (null == task) {
+                // the task must not refer to the schema (a weak key)
+                final Grammar[] grammarSet = ((XSGrammarPoolContainer) xsd).getGrammarPool()
+                        .retrieveInitialGrammarSet(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                task = new FutureTask<XSModelIndex>(new Callable<XSModelIndex>() {
+                    @Override
+                    public XSModelIndex call() {
+                        return new XSModelIndex(grammarSet);
+                    }
+                });
+                INDEXES.put(xsd, task);
+                builder = true;
+            }
+        }
+        if (builder) {
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            synchronized (INDEXES) {
+                if (INDEXES.get(xsd) == task) {
+                    INDEXES.remove(xsd);
+                }
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for schema index.", e);
+        }
+    }
+
+    private XSModelIndex(Grammar[] grammarSet) {
+        for (Grammar grammar : grammarSet) {
+            if (!(grammar instanceof SchemaGrammar)) {
+                continue;
+            }
+            SchemaGrammar schemaGrammar = (SchemaGrammar) grammar;
+            String namespace = schemaGrammar.getTargetNamespace();
+            if (null == namespace) {
+                namespace = XMLConstants.NULL_NS_URI;
+            }
+            if (!grammars.containsKey(namespace)) {
+                grammars.put(namespace, schemaGrammar);
+            }
+        }
+        // a single model over all grammars: each component is visited once
+        completeModel = new XSModelImpl(grammars.values().toArray(new SchemaGrammar[grammars.size()]));
+        mergedModels.put(Collections.unmodifiableSet(new HashSet<String>(grammars.keySet())), completeModel);
+        XSNamedMap elementDecls = completeModel.getComponents(XSConstants.ELEMENT_DECLARATION);
+        for (int i = 0; i < elementDecls.getLength(); i++) {
+            XSElementDeclaration elementDecl = (XSElementDeclaration) elementDecls.item(i);
+            elements.put(qName(elementDecl), elementDecl);
+        }
+        XSNamedMap typeDefs = completeModel.getComponents(XSConstants.TYPE_DEFINITION);
+        for (int i = 0; i < typeDefs.getLength(); i++) {
+            XSTypeDefinition typeDef = (XSTypeDefinition) typeDefs.item(i);
+            types.put(qName(typeDef), typeDef);
+        }
+        for (XSElementDeclaration elementDecl : elements.values()) {
+            XSElementDeclaration head = elementDecl.getSubstitutionGroupAffiliation();
+            while (null != head && head != elementDecl) {
+                addMember(substitutionGroups, qName(head), elementDecl);
+                head = head.getSubstitutionGroupAffiliation();
+            }
+        }
+        for (XSTypeDefinition typeDef : types.values()) {
+            XSTypeDefinition baseType = typeDef.getBaseType();
+            XSTypeDefinition derivedType = typeDef;
+            // a ur-type definition is its own base type
+            while (null != baseType && baseType != derivedType) {
+                if (!baseType.getAnonymous()) {
+                    addMember(derivedTypes, qName(baseType), typeDef);
+                }
+                derivedType = baseType;
+                baseType = baseType.getBaseType();
+            }
+        }
+        for (Map.Entry<QName, List<XSElementDeclaration>> entry : substitutionGroups.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        for (Map.Entry<QName, List<XSTypeDefinition>> entry : derivedTypes.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+    }
+
+    /**
+     * Returns the model of the schema with the given target namespace. It
+     * includes all imported schema components. The model is built when it is
+     * first requested.
+     *
+     * @param targetNamespace
+     *            The target namespace of a schema; an empty string denotes a
+     *            schema with no target namespace.
+     * @return An XSModel object, or null if there is no such schema.
+     */
+    public XSModel getModel(String targetNamespace) {
+        XSModel model = models.get(targetNamespace);
+        if (null == model) {
+            SchemaGrammar grammar = grammars.get(targetNamespace);
+            if (null == grammar) {
+                return null;
+            }
+            // root grammar includes all imported schema components
+            XSModel newModel = grammar.toXSModel();
+            model = models.putIfAbsent(targetNamespace, newModel);
+            if (null == model) {
+                model = newModel;
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Returns a model of the complete schema set, covering all target
+     * namespaces. The index is built from this model.
+     *
+     * @return An XSModel object.
+     */
+    public XSModel getModel() {
+        return completeModel;
+    }
+
+    /**
+     * Returns a single model covering the schemas with the given target
+     * namespaces (and all imported schema components). The model is built
+     * once for each distinct set of namespaces; unknown namespaces are
+     * ignored.
+     *
+     * @param targetNamespaces
+     *            A collection of target namespaces; an empty string denotes a
+     *            schema with no target namespace.
+     * @return An XSModel object.
+     */
+    public XSModel getModel(Collection<String> targetNamespaces) {
+        Set<String> key = new HashSet<String>(targetNamespaces);
+        key.retainAll(grammars.keySet());
+        if (key.size() == grammars.size()) {
+            return completeModel;
+        }
+        synchronized (mergedModels) {
+            XSModel model = mergedModels.get(key);
+            if (null == model) {
+                List<SchemaGrammar> selected = new ArrayList<SchemaGrammar>();
+                for (Map.Entry<String, SchemaGrammar> entry : grammars.entrySet()) {
+                    if (key.contains(entry.getKey())) {
+                        selected.add(entry.getValue());
+                    }
+                }
+                model = new XSModelImpl(selected.toArray(new SchemaGrammar[selected.size()]));
+                mergedModels.put(Collections.unmodifiableSet(key), model);
+            }
+            return model;
+        }
+    }
+
+    /**
+     * Returns the global element declaration with the given name.
+     *
+     * @param name
+     *            A qualified name.
+     * @return The element declaration, or null if there is none.
+     */
+    public XSElementDeclaration getElementDeclaration(QName name) {
+        return elements.get(name);
+    }
+
+    /**
+     * Returns the global type definition with the given name.
+     *
+     * @param name
+     *            A qualified name.
+     * @return The type definition (simple or complex), or null if there is
+     *         none.
+     */
+    public XSTypeDefinition getTypeDefinition(QName name) {
+        return types.get(name);
+    }
+
+    /**
+     * Returns the members of a substitution group, including members of
+     * nested groups (members that are themselves heads).
+     *
+     * @param head
+     *            The name of the head element.
+     * @return An unmodifiable list of element declarations (possibly empty).
+     */
+    public List<XSElementDeclaration> getSubstitutionGroupMembers(QName head) {
+        List<XSElementDeclaration> members = substitutionGroups.get(head);
+        return (null != members) ? members : Collections.<XSElementDeclaration> emptyList();
+    }
+
+    /**
+     * Returns the global types derived, directly or indirectly, from the given
+     * type (by extension or restriction).
+     *
+     * @param baseType
+     *            The name of a type definition.
+     * @return An unmodifiable list of type definitions (possibly empty).
+     */
+    public List<XSTypeDefinition> getDerivedTypes(QName baseType) {
+        List<XSTypeDefinition> derived = derivedTypes.get(baseType);
+        return (null != derived) ? derived : Collections.<XSTypeDefinition> emptyList();
+    }
+
+    private static <T> void addMember(Map<QName, List<T>> index, QName key, T member) {
+        List<T> members = index.get(key);
+        if (null == members) {
+            members = new ArrayList<T>();
+            index.put(key, members);
+        }
+        members.add(member);
+    }
+
+    private static QName qName(XSObject component) {
+        String namespace = component.getNamespace();
+        return new QName((null != namespace) ? namespace : XMLConstants.NULL_NS_URI, component.getName());
+    }
+}
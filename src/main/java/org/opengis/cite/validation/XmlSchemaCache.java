@@ -0,0 +1,217 @@
+package org.opengis.cite.validation;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A bounded, thread-safe cache of compiled XML schemas. An entry is keyed by
+ * the ordered list of (catalog-resolved) schema locations from which it was
+ * compiled; when the cache is full the least recently used entry is evicted.
+ * Concurrent requests for the same schema set compile it only once.
+ *
+ * <p>
+ * Nested imports and inclusions are resolved by the compiler that creates an
+ * entry, so a cache should only be shared by compilers that use the same
+ * entity catalog.
+ * </p>
+ *
+ * @see XmlSchemaCompiler#setSchemaCache(XmlSchemaCache)
+ */
+public final class XmlSchemaCache {
+
+    private final int maximumSize;
+    private final Map<List<URI>, FutureTask<CompiledXmlSchema>> entries;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong compileTime = new AtomicLong();
+
+    /**
+     * Constructs a cache that holds at most the given number of schemas.
+     *
+     * @param maximumSize
+     *            The maximum number of entries (a positive integer).
+     */
+    public XmlSchemaCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be a positive integer: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<List<URI>, FutureTask<CompiledXmlSchema>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<URI>, FutureTask<CompiledXmlSchema>> eldest) {
+                boolean evict = size() > XmlSchemaCache.this.maximumSize;
+                if (evict) {
+                    evictionCount.incrementAndGet();
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached schema for the given schema locations, compiling it
+     * if necessary. A failed compilation is not cached.
+     *
+     * @param schemaURIs
+     *            The (resolved) schema locations.
+     * @param compiler
+     *            Compiles the schema if it is not in the cache.
+     * @return The compiled schema and its diagnostics.
+     * @throws SAXException
+     *             If the schema cannot be compiled.
+     * @throws IOException
+     *             If a schema cannot be retrieved.
+     */
+    CompiledXmlSchema get(List<URI> schemaURIs, final Callable<CompiledXmlSchema> compiler)
+            throws SAXException, IOException {
+        List<URI> key = new ArrayList<URI>(schemaURIs);
+        FutureTask<CompiledXmlSchema> task;
+        boolean compile = false;
+        synchronized (entries) {
+            task = entries.get(key);
+            if (null == task) {
+                task = new FutureTask<CompiledXmlSchema>(new Callable<CompiledXmlSchema>() {
+                    @Override
+                    public CompiledXmlSchema call() throws Exception {
+                        long start = System.nanoTime();
+                        try {
+                            return compiler.call();
+                        } finally {
+                            compileTime.addAndGet(System.nanoTime() - start);
+                        }
+                    }
+                });
+                entries.put(key, task);
+                compile = true;
+            }
+        }
+        if (compile) {
+            missCount.incrementAndGet();
+            task.run();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compiling schema: " + key, e);
+        } catch (ExecutionException e) {
+            synchronized (entries) {
+                if (entries.get(key) == task) {
+                    entries.remove(key);
+                }
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Removes all entries compiled from the given schema location.
+     *
+     * @param schemaURI
+     *            A (resolved) schema location.
+     */
+    public void invalidate(URI schemaURI) {
+        synchronized (entries) {
+            Iterator<List<URI>> keys = entries.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().contains(schemaURI)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all entries from the cache. The statistics are not reset.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached schemas.
+     *
+     * @return The number of entries in the cache.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of requests satisfied by a cached (or pending) entry.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of requests that required a schema to be compiled.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of entries evicted because the cache was full.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns the total time spent compiling schemas for this cache.
+     *
+     * @param unit
+     *            The desired time unit.
+     * @return The total compilation time.
+     */
+    public long getTotalCompileTime(TimeUnit unit) {
+        return unit.convert(compileTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder("XmlSchemaCache{");
+        str.append("size=").append(size());
+        str.append(", maximumSize=").append(maximumSize);
+        str.append(", hits=").append(hitCount.get());
+        str.append(", misses=").append(missCount.get());
+        str.append(", evictions=").append(evictionCount.get());
+        str.append(", compileTimeMillis=").append(getTotalCompileTime(TimeUnit.MILLISECONDS)).append('}');
+        return str.toString();
+    }
+}
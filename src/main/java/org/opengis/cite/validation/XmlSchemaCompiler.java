@@ -1,29 +1,57 @@
 package org.opengis.cite.validation;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.XMLConstants;
 import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
-import org.apache.xerces.util.XMLCatalogResolver;
+import org.apache.xerces.impl.xs.XMLSchemaLoader;
+import org.apache.xerces.jaxp.validation.XMLSchemaFactory;
+import org.apache.xerces.util.DOMInputSource;
+import org.apache.xerces.util.ErrorHandlerWrapper;
+import org.apache.xerces.util.SAXInputSource;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xni.parser.XMLEntityResolver;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.apache.xerces.xni.parser.XMLParseException;
+import org.apache.xerces.xs.StringList;
+import org.apache.xerces.xs.XSNamespaceItem;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 /**
  * Provides various convenience methods for compiling W3C XML schemas and
@@ -47,8 +75,22 @@ public class XmlSchemaCompiler {
 
     private static final Logger LOGR = Logger.getLogger(XmlSchemaCompiler.class
             .getPackage().getName());
-    private XMLCatalogResolver resolver;
+    private static final String SCHEMA_FULL_CHECKING = "http://apache.org/xml/features/validation/schema-full-checking";
+    private static final String XMLGRAMMAR_POOL = "http://apache.org/xml/properties/internal/grammar-pool";
+    /** Default connect timeout for retrieving a remote schema (ms). */
+    static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    /** Default read timeout for retrieving a remote schema (ms). */
+    static final int DEFAULT_READ_TIMEOUT = 30000;
+    /** Schemas compiled from snapshots, keyed by snapshot file (absolute path). */
+    private static final ConcurrentMap<String, SnapshotSchema> SNAPSHOT_SCHEMAS = new ConcurrentHashMap<String, SnapshotSchema>();
+    private CachingCatalogResolver resolver;
     private ValidationErrorHandler errHandler;
+    private XMLGrammarPool grammarPool;
+    private XmlSchemaCache schemaCache;
+    private HttpSchemaCache httpCache;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private int prefetchThreads;
 
     /**
      * Constructs and configures an XmlSchemaCompiler to use an OASIS entity
@@ -59,14 +101,161 @@ public class XmlSchemaCompiler {
      *            catalog.
      */
     public XmlSchemaCompiler(URL catalog) {
-        this.resolver = new XMLCatalogResolver();
-        if (null != catalog) {
-            String[] catalogList = new String[] { catalog.toString() };
-            resolver.setCatalogList(catalogList);
-        }
+        this(catalog, false);
+    }
+
+    /**
+     * Constructs and configures an XmlSchemaCompiler to use an OASIS entity
+     * catalog to resolve schema references. The results of catalog lookups
+     * (including failed ones) are memoized. If requested, the {@code system}
+     * and {@code uri} entries in the catalog are indexed at once; this is
+     * worthwhile for a large catalog.
+     * 
+     * @param catalog
+     *            An absolute URL specifying the location of an OASIS entity
+     *            catalog.
+     * @param indexCatalog
+     *            If {@code true}, index the catalog entries now.
+     */
+    public XmlSchemaCompiler(URL catalog, boolean indexCatalog) {
+        this.resolver = new CachingCatalogResolver(catalog, indexCatalog);
         this.errHandler = new ValidationErrorHandler();
     }
 
+    /**
+     * Constructs and configures an XmlSchemaCompiler that reuses grammars held
+     * in a shared grammar pool. Grammars compiled by this compiler are added to
+     * the pool unless it is locked; a pool may be shared by any number of
+     * compilers (on different threads). A grammar in the pool is reused for
+     * any schema that imports or includes components in its target namespace,
+     * so the pool should only contain grammars for stable namespaces (e.g.
+     * GML, XLink).
+     * 
+     * @param catalog
+     *            An absolute URL specifying the location of an OASIS entity
+     *            catalog.
+     * @param grammarPool
+     *            A (thread-safe) pool of compiled grammars, such as an
+     *            {@link XMLGrammarPoolImpl} instance.
+     */
+    public XmlSchemaCompiler(URL catalog, XMLGrammarPool grammarPool) {
+        this(catalog);
+        this.grammarPool = grammarPool;
+    }
+
+    /**
+     * Constructs an XmlSchemaCompiler with the same configuration as the given
+     * compiler (sharing its catalog resolver, grammar pool and caches) but with
+     * its own error handler (having the same limits).
+     * 
+     * @param other
+     *            The compiler to copy.
+     */
+    private XmlSchemaCompiler(XmlSchemaCompiler other) {
+        this.resolver = other.resolver;
+        // same limits, but no errors
+        this.errHandler = new ValidationErrorHandler(other.errHandler);
+        this.errHandler.reset();
+        this.grammarPool = other.grammarPool;
+        this.schemaCache = other.schemaCache;
+        this.httpCache = other.httpCache;
+        this.connectTimeout = other.connectTimeout;
+        this.readTimeout = other.readTimeout;
+        this.prefetchThreads = other.prefetchThreads;
+    }
+
+    /**
+     * Returns the grammar pool shared by this compiler.
+     * 
+     * @return An XMLGrammarPool object, or null if grammars are not shared.
+     */
+    public XMLGrammarPool getGrammarPool() {
+        return grammarPool;
+    }
+
+    /**
+     * Locks the shared grammar pool so that no further grammars are added to
+     * it (for example, once commonly imported schemas have been compiled).
+     * Grammars in a locked pool are still reused.
+     */
+    public void lockGrammarPool() {
+        if (null != grammarPool) {
+            grammarPool.lockPool();
+        }
+    }
+
+    /**
+     * Sets a cache of compiled schemas. If a cache is set, the schemas
+     * compiled by {@link #compileXmlSchema(URI...)} are memoized: a schema set
+     * is only compiled the first time it is requested, and the errors reported
+     * at that time are supplied by the error handler whenever it is retrieved
+     * from the cache.
+     * 
+     * @param schemaCache
+     *            An XmlSchemaCache instance (may be shared by compilers that
+     *            use the same catalog), or null to disable caching.
+     */
+    public void setSchemaCache(XmlSchemaCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
+    /**
+     * Sets an on-disk cache of remote schema resources. If a cache is set, a
+     * schema that is not available locally is retrieved from it instead of
+     * being read directly from the remote location.
+     * 
+     * @param httpCache
+     *            An HttpSchemaCache instance (such as the
+     *            {@link HttpSchemaCache#getSharedCache() shared cache}), or
+     *            null to disable caching.
+     */
+    public void setHttpCache(HttpSchemaCache httpCache) {
+        this.httpCache = httpCache;
+        this.resolver.setHttpCache(httpCache);
+    }
+
+    /**
+     * Enables the concurrent retrieval of remote schemas before compilation.
+     * Before a schema set is compiled by {@link #compileXmlSchema(URI...)},
+     * the documents it imports or includes (directly or indirectly) are
+     * fetched into the HTTP cache using at most the given number of threads,
+     * so that the parser only reads local copies. This has no effect unless
+     * an HTTP cache is set.
+     * 
+     * @param threads
+     *            The maximum number of concurrent retrievals, or zero to
+     *            disable prefetching (the default).
+     * @see #setHttpCache(HttpSchemaCache)
+     */
+    public void setPrefetchThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException(
+                    "Number of threads must not be negative: " + threads);
+        }
+        this.prefetchThreads = threads;
+    }
+
+    /**
+     * Sets the timeouts used when retrieving a remote schema. If a
+     * communications link cannot be established, or no data is available to
+     * read, before the corresponding timeout expires then a
+     * {@code java.net.SocketTimeoutException} is raised. The defaults are 5 s
+     * (connect) and 30 s (read); a value of zero means an infinite timeout.
+     * 
+     * @param connectTimeout
+     *            The connect timeout (ms).
+     * @param readTimeout
+     *            The read timeout (ms).
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        if (connectTimeout < 0 || readTimeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative: "
+                    + Math.min(connectTimeout, readTimeout));
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
     /**
      * Returns the specialized error handler used to collect all errors
      * encountered while parsing schemas. The error handler is reset before a
@@ -98,7 +287,272 @@ public class XmlSchemaCompiler {
      */
     public Schema compileXmlSchema(URI... schemaURIs) throws SAXException,
             IOException {
-        List<Source> sources = new ArrayList<Source>();
+        final List<URI> resolvedURIs = resolveSchemaURIs(schemaURIs);
+        if (null == schemaCache) {
+            return compileXmlSchema(resolvedURIs);
+        }
+        CompiledXmlSchema result = schemaCache.get(resolvedURIs,
+                new Callable<CompiledXmlSchema>() {
+                    @Override
+                    public CompiledXmlSchema call() throws Exception {
+                        Schema schema = compileXmlSchema(resolvedURIs);
+                        return new CompiledXmlSchema(schema,
+                                new ValidationErrorHandler(errHandler));
+                    }
+                });
+        errHandler.reset();
+        errHandler.addErrors(result.getErrorHandler());
+        return result.getSchema();
+    }
+
+    /**
+     * Compiles W3C XML Schema resources using a snapshot of the schema
+     * documents, if possible. A snapshot is usable if the file exists, was
+     * taken for the same schemas, and none of its local documents has been
+     * modified since. Otherwise the schema is compiled as by
+     * {@link #compileXmlSchema(URI...)} and a new snapshot containing every
+     * schema document it comprises is written.
+     * 
+     * <p>
+     * The compiled schema is kept in memory (for the lifetime of the process)
+     * along with the snapshot it was compiled from, and is shared by all
+     * compilers that use the same snapshot file. While the snapshot file is
+     * unchanged and still usable, subsequent calls return that schema without
+     * reading the snapshot or compiling anything; only the size and
+     * modification time of its local documents are checked (a document is
+     * read again only if these have changed).
+     * </p>
+     * 
+     * <p>
+     * Compiled grammars are not serializable, so in a new process the schema
+     * is compiled once from the documents in the snapshot. No remote document
+     * is retrieved and no catalog lookups or revalidation requests are made
+     * for documents in the snapshot. This differs from an
+     * {@link #setHttpCache(HttpSchemaCache) HTTP cache}, which keeps remote
+     * documents individually, honours their expiry times, and revalidates
+     * them with the server: a snapshot captures one schema set as a single
+     * file, which makes compilation repeatable and independent of the
+     * network, at the cost of possibly using outdated remote documents
+     * (these are not checked for modifications).
+     * </p>
+     * 
+     * @param snapshotFile
+     *            The snapshot file (it need not exist).
+     * @param schemaURIs
+     *            A sequence (or array) of absolute URIs representing schema
+     *            locations.
+     * @return A thread-safe, composite Schema object.
+     * @throws SAXException
+     *             If an error occurs while attempting to read a schema.
+     * @throws IOException
+     *             If an error occurs while attempting to retrieve a schema or
+     *             to write the snapshot.
+     */
+    public Schema compileXmlSchemaWithSnapshot(File snapshotFile,
+            URI... schemaURIs) throws SAXException, IOException {
+        List<URI> resolvedURIs = resolveSchemaURIs(schemaURIs);
+        List<String> roots = new ArrayList<String>();
+        for (URI schemaURI : resolvedURIs) {
+            roots.add(SchemaSnapshot.normalize(schemaURI.toString()));
+        }
+        String key = snapshotFile.getAbsolutePath();
+        // taken before the snapshot is read, so a later change is noticed
+        long[] fileState = SchemaSnapshot.fileState(snapshotFile.toPath());
+        SnapshotSchema cached = SNAPSHOT_SCHEMAS.get(key);
+        if (null != cached && null != fileState
+                && Arrays.equals(fileState, cached.fileState)
+                && cached.snapshot.getRoots().equals(roots)
+                && !cached.snapshot.isStale()) {
+            LOGR.log(Level.FINE, "Using schema compiled from snapshot {0}",
+                    snapshotFile);
+            errHandler.reset();
+            errHandler.addErrors(cached.schema.getErrorHandler());
+            return cached.schema.getSchema();
+        }
+        Schema schema;
+        SchemaSnapshot snapshot = SchemaSnapshot.read(snapshotFile);
+        if (null != snapshot && snapshot.getRoots().equals(roots)
+                && !snapshot.isStale()) {
+            LOGR.log(Level.FINE, "Compiling {0} schema documents from snapshot {1}",
+                    new Object[] { snapshot.getDocumentCount(), snapshotFile });
+            XMLInputSource[] inputSources = new XMLInputSource[roots.size()];
+            for (int i = 0; i < inputSources.length; i++) {
+                inputSources[i] = new XMLInputSource(null, roots.get(i), null);
+                inputSources[i].setByteStream(new ByteArrayInputStream(
+                        snapshot.getDocument(roots.get(i))));
+            }
+            schema = new XMLSchemaFactory().newSchema(loadGrammars(
+                    inputSources, snapshot.newEntityResolver(resolver)));
+        } else {
+            Map<String, byte[]> documents = new LinkedHashMap<String, byte[]>();
+            XMLInputSource[] inputSources = new XMLInputSource[roots.size()];
+            for (int i = 0; i < inputSources.length; i++) {
+                byte[] content = readDocument(resolvedURIs.get(i));
+                documents.put(roots.get(i), content);
+                inputSources[i] = new XMLInputSource(null, roots.get(i), null);
+                inputSources[i].setByteStream(new ByteArrayInputStream(content));
+            }
+            XMLGrammarPoolImpl schemaPool = loadGrammars(inputSources,
+                    this.resolver);
+            for (Grammar grammar : schemaPool
+                    .retrieveInitialGrammarSet(XMLGrammarDescription.XML_SCHEMA)) {
+                StringList locations = ((XSNamespaceItem) grammar)
+                        .getDocumentLocations();
+                for (int i = 0; i < locations.getLength(); i++) {
+                    String location = SchemaSnapshot.normalize(locations.item(i));
+                    if (!documents.containsKey(location)) {
+                        documents.put(location,
+                                readDocument(URI.create(location)));
+                    }
+                }
+            }
+            snapshot = new SchemaSnapshot(roots, documents);
+            snapshot.write(snapshotFile);
+            fileState = SchemaSnapshot.fileState(snapshotFile.toPath());
+            schema = new XMLSchemaFactory().newSchema(schemaPool);
+        }
+        if (null != fileState) {
+            SNAPSHOT_SCHEMAS.put(key, new SnapshotSchema(snapshot, fileState,
+                    new CompiledXmlSchema(schema, new ValidationErrorHandler(
+                            errHandler))));
+        }
+        return schema;
+    }
+
+    /**
+     * Reads the content of a schema document.
+     * 
+     * @param schemaURI
+     *            An absolute URI referring to a schema document.
+     * @return The document content.
+     * @throws IOException
+     *             If the document cannot be retrieved.
+     */
+    private byte[] readDocument(URI schemaURI) throws IOException {
+        if (schemaURI.getScheme().equalsIgnoreCase("file")) {
+            return Files.readAllBytes(new File(schemaURI).toPath());
+        }
+        if (null != httpCache) {
+            return Files.readAllBytes(httpCache.getFile(schemaURI).toPath());
+        }
+        URLConnection conn = openConnection(schemaURI, connectTimeout,
+                readTimeout);
+        try (InputStream in = conn.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Compiles a number of independent schema sets concurrently using the
+     * common ForkJoin pool.
+     * 
+     * @param <K>
+     *            The type of key that identifies a schema set.
+     * @param schemaSets
+     *            A map of schema sets, each consisting of absolute URIs
+     *            representing schema locations.
+     * @return A map containing the compiled schema (with its own error
+     *         handler) for each schema set, in iteration order.
+     * @see #compileXmlSchemas(Map, ForkJoinPool)
+     */
+    public <K> Map<K, CompiledXmlSchema> compileXmlSchemas(
+            Map<K, ? extends Collection<URI>> schemaSets) {
+        return compileXmlSchemas(schemaSets, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compiles a number of independent schema sets concurrently. Each schema
+     * set is compiled as by {@link #compileXmlSchema(URI...)} by a compiler
+     * that shares the configuration of this one (catalog, grammar pool and
+     * caches) but reports to its own error handler; the error handler of this
+     * compiler is not modified.
+     * 
+     * <p>
+     * A schema set that cannot be compiled does not affect the others: its
+     * result contains a null schema and an error handler that records the
+     * reason (a CRITICAL error).
+     * </p>
+     * 
+     * @param <K>
+     *            The type of key that identifies a schema set.
+     * @param schemaSets
+     *            A map of schema sets, each consisting of absolute URIs
+     *            representing schema locations.
+     * @param pool
+     *            The ForkJoinPool that runs the compilation tasks.
+     * @return A map containing the compiled schema (with its own error
+     *         handler) for each schema set, in iteration order.
+     */
+    public <K> Map<K, CompiledXmlSchema> compileXmlSchemas(
+            Map<K, ? extends Collection<URI>> schemaSets, ForkJoinPool pool) {
+        if (null == schemaSets) {
+            throw new IllegalArgumentException("No schema sets provided.");
+        }
+        if (null == pool) {
+            throw new IllegalArgumentException("No pool provided.");
+        }
+        Map<K, ForkJoinTask<CompiledXmlSchema>> tasks = new LinkedHashMap<K, ForkJoinTask<CompiledXmlSchema>>();
+        for (Map.Entry<K, ? extends Collection<URI>> entry : schemaSets
+                .entrySet()) {
+            final URI[] schemaURIs = entry.getValue().toArray(
+                    new URI[entry.getValue().size()]);
+            tasks.put(entry.getKey(),
+                    pool.submit(new Callable<CompiledXmlSchema>() {
+                        @Override
+                        public CompiledXmlSchema call() {
+                            return new XmlSchemaCompiler(
+                                    XmlSchemaCompiler.this)
+                                    .compileSchemaSet(schemaURIs);
+                        }
+                    }));
+        }
+        Map<K, CompiledXmlSchema> results = new LinkedHashMap<K, CompiledXmlSchema>();
+        for (Map.Entry<K, ForkJoinTask<CompiledXmlSchema>> entry : tasks
+                .entrySet()) {
+            results.put(entry.getKey(), entry.getValue().join());
+        }
+        return results;
+    }
+
+    /**
+     * Compiles a schema set, recording any exception in the error handler.
+     * 
+     * @param schemaURIs
+     *            An array of absolute URIs representing schema locations.
+     * @return The compiled schema (null if compilation failed) and its
+     *         diagnostics.
+     */
+    private CompiledXmlSchema compileSchemaSet(URI... schemaURIs) {
+        Schema schema = null;
+        try {
+            schema = compileXmlSchema(schemaURIs);
+        } catch (SAXException | IOException | RuntimeException e) {
+            LOGR.log(Level.FINE, "Failed to compile schema set", e);
+            if (!(e instanceof SAXParseException)) {
+                // a parse error has already been reported
+                errHandler.addError(ErrorSeverity.CRITICAL, e.getMessage(),
+                        e.getClass().getName(), new ErrorLocator(-1, -1, null));
+            }
+        }
+        return new CompiledXmlSchema(schema, errHandler);
+    }
+
+    /**
+     * Resolves a sequence of schema URIs using the entity catalog.
+     * 
+     * @param schemaURIs
+     *            A sequence of absolute URIs representing schema locations.
+     * @return A list containing the location of a local copy of each schema
+     *         (if the catalog has a matching entry) or the original URI.
+     */
+    List<URI> resolveSchemaURIs(URI... schemaURIs) {
+        List<URI> resolvedURIs = new ArrayList<URI>(schemaURIs.length);
         for (URI schemaURI : schemaURIs) {
             String catalogEntry = lookupSchemaByURI(schemaURI);
             if (null != catalogEntry) {
@@ -106,15 +560,66 @@ public class XmlSchemaCompiler {
                         catalogEntry);
                 schemaURI = URI.create(catalogEntry);
             }
-            File schemaFile = dereferenceURI(schemaURI);
-            Source source = new StreamSource(schemaFile);
-            // use system identifier to resolve relative URIs.
-            source.setSystemId(schemaURI.toString());
-            LOGR.log(Level.FINE, "Adding schema source: {0}",
-                    source.getSystemId());
-            sources.add(source);
+            resolvedURIs.add(schemaURI);
+        }
+        return resolvedURIs;
+    }
+
+    /**
+     * Compiles the schemas at the given (resolved) locations.
+     * 
+     * @param resolvedURIs
+     *            A list of absolute URIs representing schema locations.
+     * @return A thread-safe, composite Schema object.
+     * @throws SAXException
+     *             If an error occurs while attempting to read a schema.
+     * @throws IOException
+     *             If an error occurs while attempting to retrieve a schema.
+     */
+    Schema compileXmlSchema(List<URI> resolvedURIs) throws SAXException,
+            IOException {
+        if (prefetchThreads > 0 && null != httpCache) {
+            Set<URI> documents = new SchemaPrefetcher(resolver, httpCache,
+                    prefetchThreads).prefetch(resolvedURIs);
+            LOGR.log(Level.FINE, "Prefetched {0} schema documents.",
+                    documents.size());
+        }
+        List<Source> sources = new ArrayList<Source>();
+        List<InputStream> streams = new ArrayList<InputStream>();
+        try {
+            for (URI schemaURI : resolvedURIs) {
+                StreamSource source;
+                if (schemaURI.getScheme().equalsIgnoreCase("file")) {
+                    source = new StreamSource(new File(schemaURI));
+                } else if (null != httpCache) {
+                    // read the cached copy rather than the remote resource
+                    InputStream stream = new FileInputStream(
+                            httpCache.getFile(schemaURI));
+                    streams.add(stream);
+                    source = new StreamSource(stream, schemaURI.toString());
+                } else {
+                    // read the remote resource directly (no local copy)
+                    LOGR.log(Level.FINE,
+                            "Attempting to retrieve schema from {0}",
+                            schemaURI);
+                    URLConnection conn = openConnection(schemaURI,
+                            connectTimeout, readTimeout);
+                    InputStream stream = conn.getInputStream();
+                    streams.add(stream);
+                    // use the final location to resolve relative URIs
+                    source = new StreamSource(stream, conn.getURL()
+                            .toString());
+                }
+                LOGR.log(Level.FINE, "Adding schema source: {0}",
+                        source.getSystemId());
+                sources.add(source);
+            }
+            return compileXmlSchema(sources.toArray(new Source[sources.size()]));
+        } finally {
+            for (InputStream stream : streams) {
+                stream.close();
+            }
         }
-        return compileXmlSchema(sources.toArray(new Source[sources.size()]));
     }
 
     /**
@@ -135,6 +640,9 @@ public class XmlSchemaCompiler {
      */
     public Schema compileXmlSchema(Source... xsdSources) throws SAXException {
         LOGR.log(Level.FINE, "Compiling {0} schema sources.", xsdSources.length);
+        if (null != grammarPool) {
+            return compileXmlSchemaUsingPool(xsdSources);
+        }
         SchemaFactory xsdFactory = SchemaFactory
                 .newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
         errHandler.reset();
@@ -144,6 +652,98 @@ public class XmlSchemaCompiler {
         return schema;
     }
 
+    /**
+     * Compiles a sequence of W3C XML Schema resources, reusing grammars from
+     * the shared grammar pool. The resulting Schema is backed by a (locked)
+     * pool containing only the grammars used by the given schemas.
+     * 
+     * @param xsdSources
+     *            A sequence of Source objects used to read the input schemas.
+     * @return A thread-safe, composite Schema object.
+     * @throws SAXException
+     *             If an error occurs while attempting to compile the schema.
+     */
+    Schema compileXmlSchemaUsingPool(Source... xsdSources) throws SAXException {
+        XMLInputSource[] inputSources = new XMLInputSource[xsdSources.length];
+        for (int i = 0; i < xsdSources.length; i++) {
+            inputSources[i] = toXMLInputSource(xsdSources[i]);
+        }
+        return new XMLSchemaFactory().newSchema(loadGrammars(inputSources,
+                this.resolver));
+    }
+
+    /**
+     * Loads the grammars for a sequence of schema documents into a new grammar
+     * pool. Grammars in the shared grammar pool (if any) are reused. The error
+     * handler is reset beforehand.
+     * 
+     * @param inputSources
+     *            A sequence of input sources used to read the schemas.
+     * @param entityResolver
+     *            The resolver used to locate imported or included schemas.
+     * @return A locked grammar pool containing the grammars used by the given
+     *         schemas.
+     * @throws SAXException
+     *             If an error occurs while attempting to compile the schema.
+     */
+    XMLGrammarPoolImpl loadGrammars(XMLInputSource[] inputSources,
+            XMLEntityResolver entityResolver) throws SAXException {
+        XMLGrammarPoolImpl schemaPool = new XMLGrammarPoolImpl();
+        XMLSchemaLoader loader = new XMLSchemaLoader();
+        loader.setFeature(SCHEMA_FULL_CHECKING, true);
+        loader.setProperty(XMLGRAMMAR_POOL, (null != grammarPool)
+                ? new LayeredGrammarPool(schemaPool, grammarPool) : schemaPool);
+        loader.setEntityResolver(entityResolver);
+        errHandler.reset();
+        loader.setErrorHandler(new ErrorHandlerWrapper(this.errHandler));
+        try {
+            loader.loadGrammar(inputSources);
+        } catch (XMLParseException e) {
+            throw new SAXParseException(e.getMessage(), e.getPublicId(),
+                    e.getExpandedSystemId(), e.getLineNumber(),
+                    e.getColumnNumber(), e.getException());
+        } catch (XNIException e) {
+            Exception cause = e.getException();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            }
+            throw new SAXException(e.getMessage(), cause);
+        } catch (IOException e) {
+            throw new SAXException(e.getMessage(), e);
+        }
+        schemaPool.lockPool();
+        return schemaPool;
+    }
+
+    /**
+     * Converts a Source to an XNI input source.
+     * 
+     * @param source
+     *            A StreamSource, DOMSource, or SAXSource object.
+     * @return An XMLInputSource for reading the source.
+     */
+    static XMLInputSource toXMLInputSource(Source source) {
+        if (source instanceof DOMSource) {
+            DOMSource domSource = (DOMSource) source;
+            return new DOMInputSource(domSource.getNode(),
+                    domSource.getSystemId());
+        }
+        if (source instanceof SAXSource) {
+            SAXSource saxSource = (SAXSource) source;
+            return new SAXInputSource(saxSource.getXMLReader(),
+                    saxSource.getInputSource());
+        }
+        XMLInputSource input = new XMLInputSource(null, source.getSystemId(),
+                null);
+        if (source instanceof StreamSource) {
+            StreamSource streamSource = (StreamSource) source;
+            input.setPublicId(streamSource.getPublicId());
+            input.setByteStream(streamSource.getInputStream());
+            input.setCharacterStream(streamSource.getReader());
+        }
+        return input;
+    }
+
     /**
      * Looks up a (schema) URI in an entity catalog by system identifier or
      * namespace name.
@@ -155,28 +755,20 @@ public class XmlSchemaCompiler {
      *         matching entry exists.
      */
     String lookupSchemaByURI(URI uri) {
-        String schemaRef = null;
-        try {
-            schemaRef = resolver.resolveSystem(uri.toString());
-            if (null == schemaRef) {
-                schemaRef = resolver.resolveURI(uri.toString());
-            }
-        } catch (IOException e) {
-            LOGR.log(Level.WARNING, "Error reading schema catalog. {0}",
-                    e.getCause());
-        }
-        return schemaRef;
+        return resolver.lookupSchema(uri);
     }
 
     /**
-     * Dereferences the given URI and writes the resulting entity (XML Schema)
-     * to a local file. If a communications link cannot be established within 5
-     * s, a {@code java.net.SocketTimeoutException} is raised.
+     * Dereferences the given URI and copies the resulting entity (XML Schema)
+     * byte for byte to a local file. If a communications link cannot be
+     * established, or no data can be read, within the configured timeouts, a
+     * {@code java.net.SocketTimeoutException} is raised.
      * 
      * @param schemaURI
      *            An absolute URI reference.
      * @return A File object containing the referenced entity; it is located in
-     *         the default temporary-file directory.
+     *         the HTTP cache directory (if a cache is set) or else in the
+     *         default temporary-file directory.
      * @throws IOException
      *             If the resource cannot be retrieved.
      */
@@ -188,21 +780,60 @@ public class XmlSchemaCompiler {
         if (schemaURI.getScheme().equalsIgnoreCase("file")) {
             return new File(schemaURI);
         }
+        if (null != httpCache) {
+            return httpCache.getFile(schemaURI);
+        }
         LOGR.log(Level.FINE, "Attempting to retrieve schema from {0}",
                 schemaURI);
         Path destFilePath = Files.createTempFile("schema-", ".xsd");
-        Charset utf8 = Charset.forName("UTF-8");
-        URLConnection conn = schemaURI.toURL().openConnection();
-        conn.setConnectTimeout(5000);
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                conn.getInputStream(), utf8));
-                BufferedWriter writer = Files.newBufferedWriter(destFilePath,
-                        utf8)) {
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                writer.write(line);
-            }
+        URLConnection conn = openConnection(schemaURI, connectTimeout,
+                readTimeout);
+        try (InputStream in = conn.getInputStream()) {
+            Files.copy(in, destFilePath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(destFilePath);
+            throw e;
         }
         return destFilePath.toFile();
     }
+
+    /**
+     * Opens a connection to the resource at the given URI.
+     * 
+     * @param uri
+     *            An absolute URI reference.
+     * @param connectTimeout
+     *            The connect timeout (ms).
+     * @param readTimeout
+     *            The read timeout (ms).
+     * @return A URLConnection object (not yet connected).
+     * @throws IOException
+     *             If the URI cannot be converted to a URL or an I/O error
+     *             occurs.
+     */
+    static URLConnection openConnection(URI uri, int connectTimeout,
+            int readTimeout) throws IOException {
+        URLConnection conn = uri.toURL().openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        return conn;
+    }
+
+    /**
+     * A schema compiled from a snapshot, along with the snapshot and the size
+     * and modification time of the snapshot file.
+     */
+    private static final class SnapshotSchema {
+
+        final SchemaSnapshot snapshot;
+        final long[] fileState;
+        final CompiledXmlSchema schema;
+
+        SnapshotSchema(SchemaSnapshot snapshot, long[] fileState,
+                CompiledXmlSchema schema) {
+            this.snapshot = snapshot;
+            this.fileState = fileState;
+            this.schema = schema;
+        }
+    }
 }
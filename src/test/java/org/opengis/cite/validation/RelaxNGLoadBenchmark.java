@@ -0,0 +1,90 @@
+package org.opengis.cite.validation;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Measures the startup cost of loading a directory of RELAX NG grammars
+ * (.rnc and .rng files). It also compares sniffing the grammar syntax from
+ * the leading bytes with the former approach of creating a StAX factory and
+ * reader for every grammar. This is not a unit test and is not run by the
+ * build; run the main method with the test classpath, for example:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:... org.opengis.cite.validation.RelaxNGLoadBenchmark [dir] [iterations]
+ * </pre>
+ */
+public final class RelaxNGLoadBenchmark {
+
+    private RelaxNGLoadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File((args.length > 0) ? args[0] : "src/test/resources/relax");
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        File[] grammars = dir.listFiles();
+        if (null == grammars) {
+            throw new IllegalArgumentException("Not a directory: " + dir);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (File grammar : grammars) {
+                sniffWithStAX(grammar);
+            }
+        }
+        long stax = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (File grammar : grammars) {
+                try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(grammar))) {
+                    RelaxNGValidator.isXMLStream(in);
+                }
+            }
+        }
+        long sniff = System.nanoTime() - start;
+        System.out.printf("Syntax detection (%d grammars, %d iterations): StAX reader = %d ms, leading bytes = %d ms%n",
+                grammars.length, iterations, stax / 1000000, sniff / 1000000);
+        start = System.nanoTime();
+        int loaded = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (File grammar : grammars) {
+                try {
+                    RelaxNGValidator.createRelaxNGSchema(grammar.toURI().toURL(), null);
+                    loaded++;
+                } catch (SAXException e) {
+                    // may require network access to load external grammars
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("Loaded %d of %d grammars %d times in %d ms%n", loaded / iterations, grammars.length,
+                iterations, elapsed / 1000000);
+    }
+
+    /**
+     * Determines the grammar syntax as RelaxNGValidator formerly did: a new
+     * XMLInputFactory is obtained and a stream reader created for each
+     * grammar.
+     */
+    private static boolean sniffWithStAX(File grammar) throws IOException {
+        try (FileInputStream in = new FileInputStream(grammar)) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            try {
+                reader.nextTag();
+                return true;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            return false;
+        }
+    }
+}
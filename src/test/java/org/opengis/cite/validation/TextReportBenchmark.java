@@ -0,0 +1,52 @@
+package org.opengis.cite.validation;
+
+import java.net.URL;
+
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XsltTransformer;
+
+/**
+ * Compares the cost of generating a plain text report using the shared
+ * svrl2text.xsl executable with compiling the stylesheet for every report.
+ * This is not a unit test and is not run by the build; run the main method
+ * with the test classpath, for example:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:... org.opengis.cite.validation.TextReportBenchmark [iterations]
+ * </pre>
+ */
+public final class TextReportBenchmark {
+
+    private TextReportBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        URL url = TextReportBenchmark.class.getResource("/sch/wfs2-capabilities.sch");
+        CompiledSchematron schema = new CompiledSchematron(new StreamSource(url.openStream(), url.toString()),
+                "SimpleWFSPhase");
+        SchematronResult svrl = schema.validate(
+                new StreamSource(TextReportBenchmark.class.getResourceAsStream("/wfs-capabilities-incomplete.xml")));
+        for (int i = 0; i < iterations; i++) { // warm up
+            svrl.toTextResult();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            XsltTransformer transformer = SchematronSkeleton.getProcessor().newXsltCompiler()
+                    .compile(new StreamSource(SchematronValidator.class.getResourceAsStream("svrl2text.xsl"))).load();
+            transformer.setInitialContextNode(svrl.getSvrlReport());
+            transformer.setDestination(new XdmDestination());
+            transformer.transform();
+        }
+        long compileEach = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            svrl.toTextResult();
+        }
+        long shared = System.nanoTime() - start;
+        System.out.printf("Text report (%d iterations): compile each time = %d ms, shared stylesheet = %d ms%n",
+                iterations, compileEach / 1000000, shared / 1000000);
+    }
+}
@@ -0,0 +1,69 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+
+import javax.xml.validation.Schema;
+
+import org.apache.xerces.util.XMLCatalogResolver;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.ls.LSInput;
+import org.xml.sax.SAXException;
+
+public class VerifyCachingCatalogResolver {
+
+    private static URL entityCatalog;
+
+    @BeforeClass
+    public static void setUpClass() {
+        entityCatalog = VerifyCachingCatalogResolver.class.getResource("/entity-catalog.xml");
+    }
+
+    @Test
+    public void indexedEntriesMatchCatalog() throws IOException {
+        XMLCatalogResolver catalog = new XMLCatalogResolver(new String[] { entityCatalog.toString() });
+        CachingCatalogResolver iut = new CachingCatalogResolver(entityCatalog, true);
+        int indexed = iut.getLookupCacheSize();
+        assertEquals("Unexpected number of indexed entries.", 9, indexed);
+        String[] systemIds = { "http://www.w3.org/2001/xml.xsd", "http://www.w3.org/1999/xlink.xsd",
+                "http://www.example.net/shiporder.xsd" };
+        for (String systemId : systemIds) {
+            assertEquals("Unexpected result for " + systemId, catalog.resolveSystem(systemId),
+                    iut.lookupSystem(systemId));
+        }
+        assertEquals("Unexpected result.", catalog.resolveURI("http://www.example.com/IPO"),
+                iut.lookupURI("http://www.example.com/IPO"));
+        assertEquals("Unexpected number of memoized entries.", indexed, iut.getLookupCacheSize());
+    }
+
+    @Test
+    public void memoizeFailedLookup() throws IOException {
+        CachingCatalogResolver iut = new CachingCatalogResolver(entityCatalog, false);
+        assertNull("Unexpected match.", iut.lookupSystem("http://www.example.org/missing.xsd"));
+        assertNull("Unexpected match.", iut.lookupSystem("http://www.example.org/missing.xsd"));
+        assertEquals("Unexpected number of memoized entries.", 1, iut.getLookupCacheSize());
+        iut.clearLookupCache();
+        assertEquals("Unexpected number of memoized entries.", 0, iut.getLookupCacheSize());
+    }
+
+    @Test
+    public void resolveResourceByNamespace() {
+        CachingCatalogResolver iut = new CachingCatalogResolver(entityCatalog, true);
+        LSInput input = iut.resolveResource("http://www.w3.org/2001/XMLSchema", "http://www.example.com/IPO",
+                null, null, null);
+        assertNotNull("Expected catalog match.", input);
+        assertTrue("Unexpected system id: " + input.getSystemId(), input.getSystemId().endsWith("xsd/ipo.xsd"));
+    }
+
+    @Test
+    public void compileWithIndexedCatalog() throws SAXException, IOException {
+        XmlSchemaCompiler compiler = new XmlSchemaCompiler(entityCatalog, true);
+        Schema schema = compiler.compileXmlSchema(URI.create("http://www.example.net/shiporder.xsd"));
+        assertNotNull("Schema is null.", schema);
+        assertFalse("Compilation errors were reported.", compiler.getErrorHandler().errorsDetected());
+    }
+}
@@ -0,0 +1,287 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import net.sf.saxon.StandardErrorListener;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.s9api.XsltTransformer;
+import net.sf.saxon.type.Type;
+
+public class VerifyCompiledSchematron {
+
+    private static final String OWS_NS = "http://www.opengis.net/ows/1.1";
+
+    public VerifyCompiledSchematron() {
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void compileWithoutSchemaShouldFail() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("No schema Source provided.");
+        CompiledSchematron iut = new CompiledSchematron(null);
+        assertNull(iut);
+    }
+
+    @Test
+    public void validateEmptySoapBody() throws Exception {
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        CompiledSchematron iut = new CompiledSchematron(schemaSource);
+        SchematronResult result = iut
+                .validate(new StreamSource(getClass().getResourceAsStream("/Soap-EmptyBody.xml")));
+        assertEquals("Unexpected number of reported violations.", 2, result.getRuleViolationCount());
+        assertTrue("Expected rule violations.", result.ruleViolationsDetected());
+        Document doc = (Document) result.toDOMResult().getNode();
+        assertEquals("Result doc node has unexpected [local name]", "schematron-output",
+                doc.getDocumentElement().getLocalName());
+    }
+
+    @Test
+    public void validateConcurrently() throws Exception {
+        URL url = this.getClass().getResource("/sch/wfs2-capabilities.sch");
+        final CompiledSchematron iut = new CompiledSchematron(new StreamSource(url.openStream(), url.toString()),
+                "SimpleWFSPhase");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<SchematronResult>> futures = new ArrayList<Future<SchematronResult>>();
+        try {
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(new Callable<SchematronResult>() {
+                    @Override
+                    public SchematronResult call() throws Exception {
+                        return iut.validate(new StreamSource(
+                                getClass().getResourceAsStream("/wfs-capabilities-incomplete.xml")));
+                    }
+                }));
+            }
+            for (Future<SchematronResult> future : futures) {
+                assertEquals("Unexpected number of rule violations.", 18, future.get().getRuleViolationCount());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shareCatalogResolver() {
+        assertNotNull("No catalog resolver.", SchematronSkeleton.newXsltCompiler().getURIResolver());
+        assertSame("Catalog resolver is not shared.", SchematronSkeleton.newXsltCompiler().getURIResolver(),
+                SchematronSkeleton.newXsltCompiler().getURIResolver());
+    }
+
+    @Test
+    public void shareCompiledSchema() throws Exception {
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        CompiledSchematron schema = new CompiledSchematron(schemaSource);
+        SchematronValidator validator1 = schema.newValidator();
+        SchematronValidator validator2 = schema.newValidator();
+        validator1.validate(new StreamSource(getClass().getResourceAsStream("/Soap-EmptyBody.xml")));
+        validator2.validate(new StreamSource(getClass().getResourceAsStream("/Soap-Fault.xml")));
+        assertEquals("Unexpected number of reported violations.", 2, validator1.getRuleViolationCount());
+        assertEquals("Unexpected number of reported violations.", 0, validator2.getRuleViolationCount());
+    }
+
+    @Test
+    public void countRuleViolationsWithoutReport() throws Exception {
+        URL url = this.getClass().getResource("/sch/wfs2-capabilities.sch");
+        CompiledSchematron iut = new CompiledSchematron(new StreamSource(url.openStream(), url.toString()),
+                "SimpleWFSPhase");
+        int count = iut.countRuleViolations(
+                new StreamSource(getClass().getResourceAsStream("/wfs-capabilities-incomplete.xml")), null);
+        assertEquals("Unexpected number of rule violations.", 18, count);
+    }
+
+    @Test
+    public void summarizeRuleViolations() throws Exception {
+        URL url = this.getClass().getResource("/sch/wfs2-capabilities.sch");
+        CompiledSchematron iut = new CompiledSchematron(new StreamSource(url.openStream(), url.toString()),
+                "SimpleWFSPhase");
+        SchematronSummary summary = iut.summarize(
+                new StreamSource(getClass().getResourceAsStream("/wfs-capabilities-incomplete.xml")), null, false);
+        assertEquals("Unexpected number of rule violations.", 18, summary.getRuleViolationCount());
+        assertFalse("Validation should not be terminated.", summary.isTerminated());
+        assertEquals("Unexpected number of violations in pattern.", Integer.valueOf(13),
+                summary.getViolationsByPattern().get("ConformanceStatementPattern"));
+        assertEquals("Unexpected number of violations of assertion.", Integer.valueOf(1), summary
+                .getViolationsByAssertion().get("ows:Constraint[@name='ImplementsBasicWFS']/ows:DefaultValue"));
+        int total = 0;
+        for (Integer count : summary.getViolationsByRule().values()) {
+            total += count;
+        }
+        assertEquals("Unexpected sum of violations by rule.", 18, total);
+    }
+
+    @Test
+    public void summarizeFailFast() throws Exception {
+        URL url = this.getClass().getResource("/sch/wfs2-capabilities.sch");
+        CompiledSchematron iut = new CompiledSchematron(new StreamSource(url.openStream(), url.toString()),
+                "SimpleWFSPhase");
+        SchematronSummary summary = iut.summarize(
+                new StreamSource(getClass().getResourceAsStream("/wfs-capabilities-incomplete.xml")), null, true);
+        assertTrue("Validation should be terminated.", summary.isTerminated());
+        assertEquals("Unexpected number of failed assertions.", 1, summary.getFailedAssertCount());
+    }
+
+    @Test
+    public void summarizeFailFastReportsNoError() throws Exception {
+        URL url = this.getClass().getResource("/sch/wfs2-capabilities.sch");
+        CompiledSchematron iut = new CompiledSchematron(new StreamSource(url.openStream(), url.toString()),
+                "SimpleWFSPhase");
+        // the standard listener writes to the error output stream (stderr)
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        StandardErrorListener listener = new StandardErrorListener();
+        listener.setErrorOutput(new PrintStream(stderr, true));
+        XsltTransformer transformer = iut.newTransformer();
+        transformer.getUnderlyingController().setErrorListener(listener);
+        SchematronSummary summary = iut.summarize(transformer,
+                new StreamSource(getClass().getResourceAsStream("/wfs-capabilities-incomplete.xml")), true);
+        assertTrue("Validation should be terminated.", summary.isTerminated());
+        assertEquals("Unexpected error output.", "", stderr.toString());
+    }
+
+    @Test
+    public void validateAllWithInvalidParallelism() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Parallelism must be a positive integer");
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        CompiledSchematron iut = new CompiledSchematron(schemaSource);
+        iut.validateAll(new ArrayList<Source>(), null, Executors.newSingleThreadExecutor(), 0);
+    }
+
+    @Test
+    public void validateAllInParallel() throws Exception {
+        URL url = this.getClass().getResource("/sch/wfs2-capabilities.sch");
+        CompiledSchematron iut = new CompiledSchematron(new StreamSource(url.openStream(), url.toString()),
+                "SimpleWFSPhase");
+        List<Source> sources = new ArrayList<Source>();
+        for (int i = 0; i < 12; i++) {
+            sources.add(new StreamSource(getClass().getResourceAsStream("/wfs-capabilities-incomplete.xml")));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Iterator<SchematronResult> results = iut.validateAll(sources, null, executor, 3);
+            Set<Source> validated = new HashSet<Source>();
+            while (results.hasNext()) {
+                SchematronResult result = results.next();
+                assertEquals("Unexpected number of rule violations.", 18, result.getRuleViolationCount());
+                validated.add(result.getSource());
+            }
+            assertEquals("Unexpected number of results.", sources.size(), validated.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void validateAllReusesTransformerWithParameters() throws Exception {
+        URL url = this.getClass().getResource("/sch/ExceptionReport.sch");
+        CompiledSchematron iut = new CompiledSchematron(new StreamSource(url.openStream(), url.toString()),
+                "MissingParameterValuePhase");
+        List<Source> sources = new ArrayList<Source>();
+        for (int i = 0; i < 3; i++) {
+            sources.add(new StreamSource(getClass().getResourceAsStream("/ExceptionReport-MissingParameterValue.xml")));
+        }
+        Map<String, String> params = Collections.singletonMap("version", "2.0.1");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // one transformer is reset and reused for every document
+            Iterator<SchematronResult> results = iut.validateAll(sources, params, executor, 1);
+            int count = 0;
+            while (results.hasNext()) {
+                assertEquals("Unexpected number of rule violations.", 2, results.next().getRuleViolationCount());
+                count++;
+            }
+            assertEquals("Unexpected number of results.", sources.size(), count);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void validateAllReadsSourcesLazily() throws Exception {
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        CompiledSchematron iut = new CompiledSchematron(schemaSource);
+        final AtomicInteger taken = new AtomicInteger();
+        Iterable<Source> sources = new Iterable<Source>() {
+            @Override
+            public Iterator<Source> iterator() {
+                return new Iterator<Source>() {
+                    @Override
+                    public boolean hasNext() {
+                        return taken.get() < 10;
+                    }
+
+                    @Override
+                    public Source next() {
+                        taken.incrementAndGet();
+                        return new StreamSource(getClass().getResourceAsStream("/Soap-EmptyBody.xml"));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Iterator<SchematronResult> results = iut.validateAll(sources, null, executor, 2);
+            assertEquals("Unexpected number of sources taken.", 2, taken.get());
+            results.next();
+            assertEquals("Unexpected number of sources taken.", 3, taken.get());
+            int count = 1;
+            while (results.hasNext()) {
+                assertEquals("Unexpected number of rule violations.", 2, results.next().getRuleViolationCount());
+                count++;
+            }
+            assertEquals("Unexpected number of results.", 10, count);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void buildDocumentFromFragment() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder()
+                .parse(getClass().getResourceAsStream("/wfs-capabilities-incomplete.xml"));
+        Element opsMetadata = (Element) doc.getElementsByTagNameNS(OWS_NS, "OperationsMetadata").item(0);
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        CompiledSchematron iut = new CompiledSchematron(schemaSource);
+        NodeInfo docNode = iut.buildDocument(opsMetadata, "urn:test");
+        assertEquals("Unexpected node kind.", Type.DOCUMENT, docNode.getNodeKind());
+        NodeInfo docElem = (NodeInfo) docNode.iterateAxis(net.sf.saxon.om.Axis.CHILD, NodeKindTest.ELEMENT).next();
+        assertEquals("Unexpected document element.", "OperationsMetadata", docElem.getLocalPart());
+        assertSame("Source element should not be moved.", doc.getDocumentElement(), opsMetadata.getParentNode());
+    }
+}
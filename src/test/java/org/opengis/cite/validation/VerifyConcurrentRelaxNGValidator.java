@@ -0,0 +1,84 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.w3c.dom.Document;
+
+public class VerifyConcurrentRelaxNGValidator {
+
+    private static final String TEST_RESOURCES = "src/test/resources/";
+    private static Schema holidaySchema;
+
+    public VerifyConcurrentRelaxNGValidator() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        URL schemaRef = VerifyConcurrentRelaxNGValidator.class.getResource("/relax/publicHoliday.rng");
+        holidaySchema = RelaxNGSchemaCache.getSharedCache().getSchema(schemaRef);
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void createWithInvalidPoolSizeShouldFail() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Pool size must be a positive integer");
+        ConcurrentRelaxNGValidator iut = new ConcurrentRelaxNGValidator(holidaySchema, 0);
+        assertNull(iut);
+    }
+
+    @Test
+    public void validateDOMSource() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().parse(new File(TEST_RESOURCES + "holiday-missingDay.xml"));
+        ConcurrentRelaxNGValidator iut = new ConcurrentRelaxNGValidator(holidaySchema);
+        ValidationErrorHandler errHandler = iut.validate(new DOMSource(doc));
+        assertEquals("Unexpected number of errors.", 1, errHandler.getErrorCount());
+    }
+
+    @Test
+    public void validateConcurrently() throws Exception {
+        final ConcurrentRelaxNGValidator iut = new ConcurrentRelaxNGValidator(holidaySchema, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<ValidationErrorHandler>> futures = new ArrayList<Future<ValidationErrorHandler>>();
+        try {
+            for (int i = 0; i < 32; i++) {
+                final String fileName = (i % 2 == 0) ? "holiday.xml" : "holiday-missingDay.xml";
+                futures.add(executor.submit(new Callable<ValidationErrorHandler>() {
+                    @Override
+                    public ValidationErrorHandler call() throws Exception {
+                        return iut.validate(new StreamSource(new File(TEST_RESOURCES + fileName)));
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("Unexpected number of errors.", i % 2, futures.get(i).get().getErrorCount());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue("Too many idle validators: " + iut.getIdleCount(), iut.getIdleCount() <= 2);
+        assertTrue("Too many validators: " + iut.getValidatorCount(), iut.getValidatorCount() <= 2);
+    }
+}
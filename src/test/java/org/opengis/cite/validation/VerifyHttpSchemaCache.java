@@ -0,0 +1,186 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.validation.Schema;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class VerifyHttpSchemaCache {
+
+    private static final String ETAG = "\"shiporder-1\"";
+    private HttpServer server;
+    private byte[] content;
+    private String cacheControl;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Before
+    public void startServer() throws IOException {
+        content = Files.readAllBytes(new File("src/test/resources/xsd/shiporder.xsd").toPath());
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                if (null != cacheControl) {
+                    exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+                }
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                if (!exchange.getRequestURI().getPath().endsWith(".xsd")) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModifiedCount.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+                    exchange.sendResponseHeaders(200, content.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(content);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private URI schemaURI(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void createWithNegativeMaxAge() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Maximum age must not be negative");
+        new HttpSchemaCache(tempFolder.getRoot(), -1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void useFreshCopy() throws IOException {
+        HttpSchemaCache iut = new HttpSchemaCache(tempFolder.getRoot(), 1, TimeUnit.HOURS);
+        File file = iut.getFile(schemaURI("/xsd/shiporder.xsd"));
+        assertArrayEquals("Unexpected content.", content, Files.readAllBytes(file.toPath()));
+        assertEquals("Unexpected file.", file, iut.getFile(schemaURI("/xsd/shiporder.xsd")));
+        assertEquals("Unexpected number of requests.", 1, requestCount.get());
+        assertEquals("Unexpected hit count.", 1, iut.getHitCount());
+        assertEquals("Unexpected download count.", 1, iut.getDownloadCount());
+    }
+
+    @Test
+    public void revalidateWithEntityTag() throws IOException {
+        HttpSchemaCache iut = new HttpSchemaCache(tempFolder.getRoot(), 0, TimeUnit.SECONDS);
+        File file = iut.getFile(schemaURI("/xsd/shiporder.xsd"));
+        assertEquals("Unexpected file.", file, iut.getFile(schemaURI("/xsd/shiporder.xsd")));
+        assertEquals("Unexpected number of requests.", 2, requestCount.get());
+        assertEquals("Unexpected number of 304 responses.", 1, notModifiedCount.get());
+        assertEquals("Unexpected revalidation count.", 1, iut.getRevalidationCount());
+        assertArrayEquals("Unexpected content.", content, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void honourMaxAgeDirective() throws IOException {
+        cacheControl = "public, max-age=3600";
+        HttpSchemaCache iut = new HttpSchemaCache(tempFolder.getRoot(), 0, TimeUnit.SECONDS);
+        iut.getFile(schemaURI("/xsd/shiporder.xsd"));
+        iut.getFile(schemaURI("/xsd/shiporder.xsd"));
+        assertEquals("Unexpected number of requests.", 1, requestCount.get());
+    }
+
+    @Test
+    public void persistAcrossInstances() throws IOException {
+        new HttpSchemaCache(tempFolder.getRoot(), 1, TimeUnit.HOURS).getFile(schemaURI("/xsd/shiporder.xsd"));
+        HttpSchemaCache iut = new HttpSchemaCache(tempFolder.getRoot(), 1, TimeUnit.HOURS);
+        iut.getFile(schemaURI("/xsd/shiporder.xsd"));
+        assertEquals("Unexpected number of requests.", 1, requestCount.get());
+        assertEquals("Unexpected hit count.", 1, iut.getHitCount());
+    }
+
+    @Test
+    public void useStaleCopyIfServerUnavailable() throws IOException {
+        HttpSchemaCache iut = new HttpSchemaCache(tempFolder.getRoot(), 0, TimeUnit.SECONDS);
+        File file = iut.getFile(schemaURI("/xsd/shiporder.xsd"));
+        URI schemaURI = schemaURI("/xsd/shiporder.xsd");
+        server.stop(0);
+        assertEquals("Unexpected file.", file, iut.getFile(schemaURI));
+    }
+
+    @Test
+    public void resourceNotFound() throws IOException {
+        thrown.expect(IOException.class);
+        new HttpSchemaCache(tempFolder.getRoot(), 0, TimeUnit.SECONDS).getFile(schemaURI("/missing"));
+    }
+
+    @Test
+    public void compileRemoteSchemaWithSharedCache() throws Exception {
+        HttpSchemaCache cache = new HttpSchemaCache(tempFolder.getRoot(), 1, TimeUnit.HOURS);
+        for (int i = 0; i < 2; i++) {
+            XmlSchemaCompiler compiler = new XmlSchemaCompiler(null);
+            compiler.setHttpCache(cache);
+            Schema schema = compiler.compileXmlSchema(schemaURI("/xsd/shiporder.xsd"));
+            assertNotNull("Schema is null.", schema);
+            assertEquals("Unexpected number of compilation errors", 0, compiler.getErrorHandler().getErrorCount());
+        }
+        assertEquals("Unexpected number of requests.", 1, requestCount.get());
+    }
+
+    @Test
+    public void createPrivateDirectory() throws IOException {
+        Path dir = tempFolder.getRoot().toPath().resolve("cache");
+        HttpSchemaCache.createPrivateDirectory(dir);
+        assertTrue("Expected directory: " + dir, Files.isDirectory(dir));
+        if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals("Unexpected permissions", "rwx------",
+                    PosixFilePermissions.toString(Files.getPosixFilePermissions(dir)));
+        }
+    }
+
+    @Test
+    public void rejectDirectoryWritableByOthers() throws IOException {
+        Path dir = tempFolder.newFolder("shared").toPath();
+        Assume.assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxrwxrwx"));
+        thrown.expect(IOException.class);
+        thrown.expectMessage("writable by other users");
+        HttpSchemaCache.createPrivateDirectory(dir);
+    }
+
+    @Test
+    public void sharedCacheIsInUserHome() {
+        File dir = HttpSchemaCache.getSharedCache().getDirectory();
+        assertEquals("Unexpected parent directory", new File(System.getProperty("user.home"), ".cache"),
+                dir.getParentFile());
+    }
+}
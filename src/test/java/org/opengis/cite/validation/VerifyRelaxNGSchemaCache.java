@@ -0,0 +1,89 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+
+import org.apache.xerces.util.XMLCatalogResolver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.SAXException;
+
+public class VerifyRelaxNGSchemaCache {
+
+    private static final String TEST_RESOURCES = "src/test/resources/";
+
+    public VerifyRelaxNGSchemaCache() {
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void getSchemaWithoutURLShouldFail() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("No schema URL supplied.");
+        new RelaxNGSchemaCache().getSchema(null);
+    }
+
+    @Test
+    public void getCachedSchema() throws Exception {
+        RelaxNGSchemaCache iut = new RelaxNGSchemaCache();
+        URL schemaRef = getClass().getResource("/relax/publicHoliday.rng");
+        Schema schema = iut.getSchema(schemaRef);
+        assertSame("Expected cached schema.", schema, iut.getSchema(schemaRef));
+        assertEquals("Unexpected cache size.", 1, iut.size());
+        RelaxNGValidator validator = RelaxNGValidator.newValidator(schema);
+        validator.validate(new StreamSource(new File(TEST_RESOURCES + "holiday-missingDay.xml")));
+        assertEquals("Unexpected number of errors.", 1, validator.getErrorHandler().getErrorCount());
+    }
+
+    @Test
+    public void schemasWithDifferentResolversAreDistinct() throws Exception {
+        RelaxNGSchemaCache iut = new RelaxNGSchemaCache();
+        URL catalog = getClass().getResource("/entity-catalog.xml");
+        XMLCatalogResolver resolver = new XMLCatalogResolver(new String[] { catalog.toString() });
+        URL schemaRef = getClass().getResource("/relax/publicHoliday.rng");
+        Schema schema = iut.getSchema(schemaRef, resolver);
+        assertNotSame("Expected distinct schema.", schema, iut.getSchema(schemaRef));
+        assertEquals("Unexpected cache size.", 2, iut.size());
+        iut.remove(schemaRef);
+        assertEquals("Unexpected cache size.", 0, iut.size());
+    }
+
+    @Test
+    public void recompileModifiedGrammar() throws Exception {
+        File grammar = tempFolder.newFile("publicHoliday.rng");
+        Files.copy(new File(TEST_RESOURCES + "relax/publicHoliday.rng").toPath(), grammar.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        grammar.setLastModified(System.currentTimeMillis() - 60000);
+        RelaxNGSchemaCache iut = new RelaxNGSchemaCache(true);
+        URL schemaRef = grammar.toURI().toURL();
+        Schema schema = iut.getSchema(schemaRef);
+        assertSame("Expected cached schema.", schema, iut.getSchema(schemaRef));
+        grammar.setLastModified(System.currentTimeMillis());
+        assertNotSame("Expected recompiled schema.", schema, iut.getSchema(schemaRef));
+    }
+
+    @Test
+    public void invalidGrammarIsNotCached() throws Exception {
+        RelaxNGSchemaCache iut = new RelaxNGSchemaCache();
+        try {
+            iut.getSchema(getClass().getResource("/sch/SoapFault.sch"));
+            fail("Expected SAXException.");
+        } catch (SAXException e) {
+            assertEquals("Unexpected cache size.", 0, iut.size());
+        }
+    }
+}
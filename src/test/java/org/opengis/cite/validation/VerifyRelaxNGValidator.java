@@ -1,8 +1,12 @@
 package org.opengis.cite.validation;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -99,6 +103,20 @@ public class VerifyRelaxNGValidator {
                 err.getErrorCount());
     }
 
+    @Test
+    public void validateNamespaceAwareDOMSource() throws Exception {
+        DocumentBuilderFactory dbfac = DocumentBuilderFactory.newInstance();
+        dbfac.setNamespaceAware(true);
+        Document svrlDoc = dbfac.newDocumentBuilder().parse(
+                new File(TEST_RESOURCES + "svrl.xml"));
+        URL schemaRef = getClass().getResource("/relax/svrl.rnc");
+        RelaxNGValidator iut = new RelaxNGValidator(schemaRef);
+        iut.validate(new DOMSource(svrlDoc));
+        ValidationErrorHandler err = iut.getErrorHandler();
+        Assert.assertEquals("Unexpected number of errors.", 2,
+                err.getErrorCount());
+    }
+
     @Test
     public void convertDOMSourceToStreamSource() {
         StreamSource src = RelaxNGValidator.toStreamSource(new DOMSource(doc));
@@ -160,4 +178,36 @@ public class VerifyRelaxNGValidator {
         Assert.assertNotNull("Failed to construct validator.", iut);
     }
 
+    @Test
+    public void detectXmlSyntax() throws IOException {
+        String[] xmlGrammars = new String[] { "<grammar/>",
+                "\n  <?xml version='1.0'?><grammar/>", "\uFEFF<grammar/>" };
+        for (String grammar : xmlGrammars) {
+            Assert.assertTrue("Expected XML syntax: " + grammar,
+                    RelaxNGValidator.isXMLStream(bufferedStream(grammar,
+                            StandardCharsets.UTF_8)));
+        }
+        Assert.assertTrue("Expected XML syntax (UTF-16).",
+                RelaxNGValidator.isXMLStream(bufferedStream("\uFEFF<grammar/>",
+                        StandardCharsets.UTF_16LE)));
+        Assert.assertTrue("Expected XML syntax (UTF-16).",
+                RelaxNGValidator.isXMLStream(bufferedStream("\uFEFF<grammar/>",
+                        StandardCharsets.UTF_16BE)));
+    }
+
+    @Test
+    public void detectCompactSyntax() throws IOException {
+        BufferedInputStream bufStream = bufferedStream(
+                "# comment\nstart = element doc { text }",
+                StandardCharsets.UTF_8);
+        Assert.assertFalse("Expected compact syntax.",
+                RelaxNGValidator.isXMLStream(bufStream));
+        Assert.assertEquals("Stream was not reset.", '#', bufStream.read());
+    }
+
+    private static BufferedInputStream bufferedStream(String content,
+            Charset charset) {
+        return new BufferedInputStream(new ByteArrayInputStream(
+                content.getBytes(charset)));
+    }
 }
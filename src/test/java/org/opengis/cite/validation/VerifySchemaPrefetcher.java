@@ -0,0 +1,203 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.xml.validation.Schema;
+
+import org.apache.xerces.xni.XMLResourceIdentifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class VerifySchemaPrefetcher {
+
+    private static final String REMOTE_SCHEMAS = "src/test/resources/xsd/remote";
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final ConcurrentHashMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                requests.putIfAbsent(path, new AtomicInteger());
+                requests.get(path).incrementAndGet();
+                int n = active.incrementAndGet();
+                synchronized (maxActive) {
+                    maxActive.set(Math.max(n, maxActive.get()));
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    active.decrementAndGet();
+                }
+                File file = new File(REMOTE_SCHEMAS, path);
+                if (!file.isFile()) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] content = Files.readAllBytes(file.toPath());
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdown();
+    }
+
+    private URI serverURI(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void findReferencesInRootSchema() throws IOException {
+        List<XMLResourceIdentifier> refs = SchemaPrefetcher.findReferences(new File(REMOTE_SCHEMAS, "root.xsd"),
+                serverURI("/root.xsd"));
+        assertEquals("Unexpected number of references.", 2, refs.size());
+        assertEquals("Unexpected include location.", serverURI("/root-types.xsd").toString(),
+                refs.get(0).getExpandedSystemId());
+        assertEquals("Unexpected include namespace.", "http://www.example.net/root", refs.get(0).getNamespace());
+        assertEquals("Unexpected import location.", serverURI("/b/b.xsd").toString(),
+                refs.get(1).getExpandedSystemId());
+        assertEquals("Unexpected import namespace.", "http://www.example.net/b", refs.get(1).getNamespace());
+    }
+
+    @Test
+    public void prefetchUsesNamespaceCatalogEntry() throws IOException {
+        URI localCopy = new File(REMOTE_SCHEMAS, "b/b.xsd").getAbsoluteFile().toURI();
+        File catalogFile = writeCatalog("http://www.example.net/b", localCopy.toString());
+        HttpSchemaCache cache = new HttpSchemaCache(tempFolder.newFolder("cache"), 1, TimeUnit.HOURS);
+        SchemaPrefetcher iut = new SchemaPrefetcher(new CachingCatalogResolver(catalogFile.toURI().toURL(), false),
+                cache, 2);
+        Set<URI> documents = iut.prefetch(Collections.singletonList(serverURI("/root.xsd")));
+        assertTrue("Expected local copy of b.xsd.", documents.contains(localCopy));
+        assertFalse("Unexpected request for b.xsd.", requests.containsKey("/b/b.xsd"));
+    }
+
+    @Test
+    public void prefetchImportWithoutSchemaLocation() throws IOException {
+        File catalogFile = writeCatalog("http://www.example.net/b", serverURI("/b/b.xsd").toString());
+        File schemaFile = tempFolder.newFile("a.xsd");
+        Files.write(schemaFile.toPath(), ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+                + "<xs:import namespace='http://www.example.net/b'/></xs:schema>").getBytes(StandardCharsets.UTF_8));
+        HttpSchemaCache cache = new HttpSchemaCache(tempFolder.newFolder("cache"), 1, TimeUnit.HOURS);
+        SchemaPrefetcher iut = new SchemaPrefetcher(new CachingCatalogResolver(catalogFile.toURI().toURL(), false),
+                cache, 2);
+        Set<URI> documents = iut.prefetch(Collections.singletonList(schemaFile.toURI()));
+        assertTrue("Expected b.xsd.", documents.contains(serverURI("/b/b.xsd")));
+        assertEquals("Unexpected number of requests for b.xsd.", 1, requests.get("/b/b.xsd").get());
+    }
+
+    private File writeCatalog(String namespace, String location) throws IOException {
+        File catalogFile = tempFolder.newFile("catalog.xml");
+        Files.write(catalogFile.toPath(),
+                ("<catalog xmlns='urn:oasis:names:tc:entity:xmlns:xml:catalog'><uri name='" + namespace
+                        + "' uri='" + location + "'/></catalog>").getBytes(StandardCharsets.UTF_8));
+        return catalogFile;
+    }
+
+    @Test
+    public void prefetchClosureWithCycle() {
+        HttpSchemaCache cache = new HttpSchemaCache(tempFolder.getRoot(), 1, TimeUnit.HOURS);
+        SchemaPrefetcher iut = new SchemaPrefetcher(new CachingCatalogResolver(), cache, 2);
+        Set<URI> documents = iut.prefetch(Collections.singletonList(serverURI("/root.xsd")));
+        assertEquals("Unexpected number of documents.", 3, documents.size());
+        assertTrue("Expected b.xsd.", documents.contains(serverURI("/b/b.xsd")));
+        for (Map.Entry<String, AtomicInteger> entry : requests.entrySet()) {
+            assertEquals("Unexpected number of requests for " + entry.getKey(), 1, entry.getValue().get());
+        }
+        assertTrue("Too many concurrent requests: " + maxActive.get(), maxActive.get() <= 2);
+    }
+
+    @Test
+    public void skipMissingDocument() {
+        HttpSchemaCache cache = new HttpSchemaCache(tempFolder.getRoot(), 1, TimeUnit.HOURS);
+        SchemaPrefetcher iut = new SchemaPrefetcher(new CachingCatalogResolver(), cache, 2);
+        Set<URI> documents = iut.prefetch(Arrays.asList(serverURI("/missing.xsd"), serverURI("/b/b.xsd")));
+        assertEquals("Unexpected number of documents.", 3, documents.size());
+    }
+
+    @Test
+    public void compileFromPrefetchedDocuments() throws Exception {
+        HttpSchemaCache cache = new HttpSchemaCache(tempFolder.getRoot(), 1, TimeUnit.HOURS);
+        XmlSchemaCompiler compiler = new XmlSchemaCompiler(null);
+        compiler.setHttpCache(cache);
+        compiler.setPrefetchThreads(4);
+        Schema schema = compiler.compileXmlSchema(serverURI("/root.xsd"));
+        assertNotNull("Schema is null.", schema);
+        assertEquals("Unexpected number of compilation errors", 0, compiler.getErrorHandler().getErrorCount());
+        assertEquals("Unexpected number of documents requested.", 3, requests.size());
+        for (Map.Entry<String, AtomicInteger> entry : requests.entrySet()) {
+            assertEquals("Unexpected number of requests for " + entry.getKey(), 1, entry.getValue().get());
+        }
+    }
+
+    @Test
+    public void prefetchClosureInJarFile() throws IOException {
+        File jarFile = tempFolder.newFile("schemas.jar");
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile))) {
+            for (String path : Arrays.asList("root.xsd", "root-types.xsd", "b/b.xsd")) {
+                jar.putNextEntry(new JarEntry("xsd/" + path));
+                jar.write(Files.readAllBytes(new File(REMOTE_SCHEMAS, path).toPath()));
+                jar.closeEntry();
+            }
+        }
+        File cacheDir = tempFolder.newFolder("cache");
+        HttpSchemaCache cache = new HttpSchemaCache(cacheDir, 1, TimeUnit.HOURS);
+        SchemaPrefetcher iut = new SchemaPrefetcher(new CachingCatalogResolver(), cache, 2);
+        URI rootURI = URI.create("jar:" + jarFile.toURI() + "!/xsd/root.xsd");
+        Set<URI> documents = iut.prefetch(Collections.singletonList(rootURI));
+        assertEquals("Unexpected number of documents.", 3, documents.size());
+        assertTrue("Expected b.xsd.", documents.contains(URI.create("jar:" + jarFile.toURI() + "!/xsd/b/b.xsd")));
+        assertEquals("Unexpected number of cached files.", 0, cacheDir.list().length);
+        assertTrue("Unexpected requests: " + requests.keySet(), requests.isEmpty());
+    }
+}
@@ -0,0 +1,168 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class VerifySchemaSnapshot {
+
+    private static final String REMOTE_SCHEMAS = "src/test/resources/xsd/remote";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File copySchemas() throws IOException {
+        File dir = tempFolder.newFolder("xsd");
+        new File(dir, "b").mkdir();
+        for (String path : new String[] { "root.xsd", "root-types.xsd", "b/b.xsd" }) {
+            Files.copy(new File(REMOTE_SCHEMAS, path).toPath(), new File(dir, path).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        return dir;
+    }
+
+    @Test
+    public void writeSnapshot() throws Exception {
+        File dir = copySchemas();
+        File snapshotFile = new File(tempFolder.getRoot(), "root.snapshot");
+        XmlSchemaCompiler iut = new XmlSchemaCompiler(null);
+        Schema schema = iut.compileXmlSchemaWithSnapshot(snapshotFile, new File(dir, "root.xsd").toURI());
+        assertNotNull("Schema is null.", schema);
+        assertFalse("Compilation errors were reported.", iut.getErrorHandler().errorsDetected());
+        SchemaSnapshot snapshot = SchemaSnapshot.read(snapshotFile);
+        assertNotNull("Snapshot not written.", snapshot);
+        assertEquals("Unexpected number of documents.", 3, snapshot.getDocumentCount());
+        assertFalse("Snapshot is stale.", snapshot.isStale());
+        assertNotNull("Schema is null.",
+                iut.compileXmlSchemaWithSnapshot(snapshotFile, new File(dir, "root.xsd").toURI()));
+    }
+
+    @Test
+    public void reuseSchemaCompiledFromSnapshot() throws Exception {
+        File dir = copySchemas();
+        File snapshotFile = new File(tempFolder.getRoot(), "root.snapshot");
+        URI schemaURI = new File(dir, "root.xsd").toURI();
+        Schema schema = new XmlSchemaCompiler(null).compileXmlSchemaWithSnapshot(snapshotFile, schemaURI);
+        assertSame("Expected schema compiled from snapshot.", schema,
+                new XmlSchemaCompiler(null).compileXmlSchemaWithSnapshot(snapshotFile, schemaURI));
+        File bFile = new File(dir, "b/b.xsd");
+        String b = new String(Files.readAllBytes(bFile.toPath()), StandardCharsets.UTF_8);
+        Files.write(bFile.toPath(), b.replace("xs:string", "xs:token").getBytes(StandardCharsets.UTF_8));
+        assertNotSame("Expected schema to be recompiled.", schema,
+                new XmlSchemaCompiler(null).compileXmlSchemaWithSnapshot(snapshotFile, schemaURI));
+    }
+
+    @Test
+    public void touchedDocumentIsNotStale() throws Exception {
+        File dir = copySchemas();
+        File snapshotFile = new File(tempFolder.getRoot(), "root.snapshot");
+        new XmlSchemaCompiler(null).compileXmlSchemaWithSnapshot(snapshotFile, new File(dir, "root.xsd").toURI());
+        File bFile = new File(dir, "b/b.xsd");
+        assertTrue("Could not set modification time.", bFile.setLastModified(bFile.lastModified() - 60000));
+        assertFalse("Snapshot is stale.", SchemaSnapshot.read(snapshotFile).isStale());
+    }
+
+    @Test
+    public void detectModifiedDocument() throws Exception {
+        File dir = copySchemas();
+        File snapshotFile = new File(tempFolder.getRoot(), "root.snapshot");
+        XmlSchemaCompiler iut = new XmlSchemaCompiler(null);
+        iut.compileXmlSchemaWithSnapshot(snapshotFile, new File(dir, "root.xsd").toURI());
+        File bFile = new File(dir, "b/b.xsd");
+        String b = new String(Files.readAllBytes(bFile.toPath()), StandardCharsets.UTF_8);
+        Files.write(bFile.toPath(), b.replace("xs:string", "xs:token").getBytes(StandardCharsets.UTF_8));
+        assertTrue("Expected stale snapshot.", SchemaSnapshot.read(snapshotFile).isStale());
+        iut.compileXmlSchemaWithSnapshot(snapshotFile, new File(dir, "root.xsd").toURI());
+        assertFalse("Snapshot was not rewritten.", SchemaSnapshot.read(snapshotFile).isStale());
+    }
+
+    @Test
+    public void ignoreCorruptSnapshot() throws Exception {
+        File dir = copySchemas();
+        File snapshotFile = new File(tempFolder.getRoot(), "root.snapshot");
+        Files.write(snapshotFile.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+        XmlSchemaCompiler iut = new XmlSchemaCompiler(null);
+        assertNotNull("Schema is null.",
+                iut.compileXmlSchemaWithSnapshot(snapshotFile, new File(dir, "root.xsd").toURI()));
+        assertNotNull("Snapshot not written.", SchemaSnapshot.read(snapshotFile));
+    }
+
+    @Test
+    public void ignoreSnapshotWithInvalidLength() throws Exception {
+        File snapshotFile = new File(tempFolder.getRoot(), "invalid.snapshot");
+        for (int length : new int[] { -1, Integer.MAX_VALUE }) {
+            try (DataOutputStream out = new DataOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(snapshotFile)))) {
+                out.writeInt(0x58534453);
+                out.writeInt(2);
+                out.writeInt(0);
+                out.writeInt(1);
+                out.writeUTF("file:/tmp/a.xsd");
+                out.writeByte(0);
+                out.writeBoolean(false);
+                out.writeInt(length);
+                out.write(new byte[16]);
+            }
+            assertNull("Expected corrupt snapshot (length " + length + ").", SchemaSnapshot.read(snapshotFile));
+        }
+    }
+
+    @Test
+    public void compileRemoteSchemaFromSnapshot() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                File file = new File(REMOTE_SCHEMAS, exchange.getRequestURI().getPath());
+                if (!file.isFile()) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] content = Files.readAllBytes(file.toPath());
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+        URI schemaURI = URI.create("http://localhost:" + server.getAddress().getPort() + "/root.xsd");
+        File snapshotFile = new File(tempFolder.getRoot(), "remote.snapshot");
+        XmlSchemaCompiler iut = new XmlSchemaCompiler(null);
+        try {
+            iut.compileXmlSchemaWithSnapshot(snapshotFile, schemaURI);
+        } finally {
+            server.stop(0);
+        }
+        assertEquals("Unexpected number of documents.", 3, SchemaSnapshot.read(snapshotFile).getDocumentCount());
+        Schema schema = iut.compileXmlSchemaWithSnapshot(snapshotFile, schemaURI);
+        assertNotNull("Schema is null.", schema);
+        assertFalse("Compilation errors were reported: " + iut.getErrorHandler(),
+                iut.getErrorHandler().errorsDetected());
+        schema.newValidator().validate(new StreamSource(new StringReader(
+                "<root xmlns='http://www.example.net/root'><item xmlns='http://www.example.net/b'>x</item></root>")));
+    }
+}
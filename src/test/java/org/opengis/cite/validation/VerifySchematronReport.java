@@ -0,0 +1,68 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class VerifySchematronReport {
+
+    public VerifySchematronReport() {
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void createWithoutReportShouldFail() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("No SVRL report provided.");
+        SchematronReport iut = new SchematronReport(null);
+        assertNull(iut);
+    }
+
+    @Test
+    public void iterateOverRuleViolations() throws Exception {
+        URL url = this.getClass().getResource("/sch/wfs2-capabilities.sch");
+        CompiledSchematron schema = new CompiledSchematron(new StreamSource(url.openStream(), url.toString()),
+                "SimpleWFSPhase");
+        SchematronResult result = schema
+                .validate(new StreamSource(getClass().getResourceAsStream("/wfs-capabilities-incomplete.xml")));
+        SchematronReport iut = result.getReport();
+        assertEquals("Unexpected phase.", "SimpleWFSPhase", iut.getPhase());
+        int total = 0;
+        int inPattern = 0;
+        for (RuleViolation violation : iut) {
+            total++;
+            assertTrue("Expected failed assertion.", violation.isFailedAssert());
+            assertFalse("Expected location path.", violation.getLocation().isEmpty());
+            if (violation.getPattern().equals("ConformanceStatementPattern")) {
+                inPattern++;
+            }
+        }
+        assertEquals("Unexpected number of rule violations.", 18, total);
+        assertEquals("Unexpected number of violations in pattern.", 13, inPattern);
+    }
+
+    @Test
+    public void convertToErrorHandler() throws Exception {
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        CompiledSchematron schema = new CompiledSchematron(schemaSource);
+        SchematronResult result = schema
+                .validate(new StreamSource(getClass().getResourceAsStream("/Soap-EmptyBody.xml")));
+        ValidationErrorHandler errHandler = result.getReport().toErrorHandler();
+        assertEquals("Unexpected number of errors.", 2, errHandler.getErrorCount());
+        assertEquals("Unexpected schema language.", SchematronReport.ISO_SCHEMATRON_NS,
+                errHandler.getSchemaLanguage());
+        ValidationError error = errHandler.iterator().next();
+        assertEquals("Unexpected severity.", ErrorSeverity.ERROR, error.getSeverity());
+        assertTrue("Expected test expression in diagnostics.", error.getDiagnostics().startsWith("Test: "));
+        assertNotNull("Expected pointer.", error.getPointer());
+    }
+}
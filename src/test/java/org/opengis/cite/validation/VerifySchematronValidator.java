@@ -2,11 +2,18 @@ package org.opengis.cite.validation;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -25,8 +32,11 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
 
 public class VerifySchematronValidator {
 
@@ -41,6 +51,9 @@ public class VerifySchematronValidator {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @BeforeClass
     public static void setUpClass() throws Exception {
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
@@ -210,6 +223,123 @@ public class VerifySchematronValidator {
         assertEquals("Unexpected number of rule violations.", 2, iut.getRuleViolationCount());
     }
 
+    @Test
+    public void countRuleViolations() throws Exception {
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        SchematronValidator iut = new SchematronValidator(schemaSource);
+        int count = iut.countRuleViolations(new StreamSource(getClass().getResourceAsStream("/Soap-EmptyBody.xml")));
+        assertEquals("Unexpected number of reported violations.", 2, count);
+        assertTrue("Expected rule violations.", iut.ruleViolationsDetected());
+    }
+
+    @Test
+    public void writeSvrlReportToOutputStream() throws Exception {
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        SchematronValidator iut = new SchematronValidator(schemaSource);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        iut.validate(new StreamSource(getClass().getResourceAsStream("/Soap-EmptyBody.xml")), out, true);
+        assertEquals("Unexpected number of reported violations.", 2, iut.getRuleViolationCount());
+        Document doc = docBuilder.parse(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("Unexpected number of failed assertions.", 2,
+                doc.getElementsByTagNameNS(SVRL_NS, "failed-assert").getLength());
+    }
+
+    @Test
+    public void writeTextReportToOutputStream() throws Exception {
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        SchematronValidator iut = new SchematronValidator(schemaSource);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        iut.validate(new StreamSource(getClass().getResourceAsStream("/Soap-EmptyBody.xml")), out, false);
+        assertEquals("Unexpected number of reported violations.", 2, iut.getRuleViolationCount());
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue("Expected plain text report.", text.startsWith("# Rules for W3C SOAP Fault messages."));
+    }
+
+    @Test
+    public void sendSvrlReportToContentHandler() throws Exception {
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        SchematronValidator iut = new SchematronValidator(schemaSource);
+        final int[] failedAsserts = new int[1];
+        iut.validate(new StreamSource(getClass().getResourceAsStream("/Soap-EmptyBody.xml")), new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes atts) {
+                if (SVRL_NS.equals(uri) && localName.equals("failed-assert")) {
+                    failedAsserts[0]++;
+                }
+            }
+        });
+        assertEquals("Unexpected number of reported violations.", 2, iut.getRuleViolationCount());
+        assertEquals("Unexpected number of failed-assert events.", 2, failedAsserts[0]);
+    }
+
+    @Test
+    public void validateUsingCachedSchema() throws Exception {
+        SchematronCache cache = new SchematronCache(tempFolder.newFolder("cache"));
+        URL url = this.getClass().getResource("/sch/wfs2-capabilities.sch");
+        SchematronValidator iut = new SchematronValidator(new StreamSource(url.openStream(), url.toString()),
+                "SimpleWFSPhase", cache);
+        assertEquals("Unexpected number of cache entries.", 1,
+                cache.getDirectory().listFiles((dir, name) -> name.endsWith(".xsl")).length);
+        iut = new SchematronValidator(new StreamSource(url.openStream(), url.toString()), "SimpleWFSPhase", cache);
+        assertEquals("Unexpected number of cache entries.", 1,
+                cache.getDirectory().listFiles((dir, name) -> name.endsWith(".xsl")).length);
+        Source xmlSource = new StreamSource(getClass().getResourceAsStream("/wfs-capabilities-incomplete.xml"));
+        iut.validate(xmlSource);
+        assertEquals("Unexpected number of rule violations.", 18, iut.getRuleViolationCount());
+        iut = new SchematronValidator(new StreamSource(url.openStream(), url.toString()),
+                "EssentialCapabilitiesPhase", cache);
+        assertEquals("Unexpected number of cache entries.", 2,
+                cache.getDirectory().listFiles((dir, name) -> name.endsWith(".xsl")).length);
+    }
+
+    @Test
+    public void cachedSchemaWithModifiedInclusion() throws Exception {
+        File schemaDir = tempFolder.newFolder("sch");
+        Files.copy(new File(TEST_RESOURCES + "sch/inclusion.sch").toPath(),
+                new File(schemaDir, "inclusion.sch").toPath());
+        File rule = new File(schemaDir, "rule-chapter.sch");
+        Files.copy(new File(TEST_RESOURCES + "sch/rule-chapter.sch").toPath(), rule.toPath());
+        SchematronCache cache = new SchematronCache(tempFolder.newFolder("cache"));
+        Source schemaSource = new StreamSource(new File(schemaDir, "inclusion.sch"));
+        SchematronValidator iut = new SchematronValidator(schemaSource, null, cache);
+        iut.validate(new StreamSource(getClass().getResourceAsStream("/DocBook-Chapters.xml")));
+        assertEquals("Unexpected number of reported violations.", 3, iut.getRuleViolationCount());
+        // remove the paragraph count report
+        String ruleText = new String(Files.readAllBytes(rule.toPath()), StandardCharsets.UTF_8);
+        Files.write(rule.toPath(), ruleText.replaceAll("(?s)<iso:report .*?</iso:report>", "")
+                .getBytes(StandardCharsets.UTF_8));
+        iut = new SchematronValidator(new StreamSource(new File(schemaDir, "inclusion.sch")), null, cache);
+        iut.validate(new StreamSource(getClass().getResourceAsStream("/DocBook-Chapters.xml")));
+        assertEquals("Unexpected number of reported violations.", 1, iut.getRuleViolationCount());
+    }
+
+    @Test
+    public void validateAllInDirectory() throws Exception {
+        File dataDir = tempFolder.newFolder("data");
+        for (int i = 0; i < 5; i++) {
+            Files.copy(new File(TEST_RESOURCES + "Soap-EmptyBody.xml").toPath(),
+                    new File(dataDir, "soap-" + i + ".xml").toPath());
+        }
+        Files.write(new File(dataDir, "README.txt").toPath(), "Not XML".getBytes(StandardCharsets.UTF_8));
+        Source schemaSource = new StreamSource(getClass().getResourceAsStream("/sch/SoapFault.sch"));
+        SchematronValidator iut = new SchematronValidator(schemaSource, null);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Iterator<SchematronResult> results = iut.validateAll(dataDir, executor, 2);
+            int count = 0;
+            while (results.hasNext()) {
+                SchematronResult result = results.next();
+                assertEquals("Unexpected number of rule violations.", 2, result.getRuleViolationCount());
+                assertTrue("Unexpected system id: " + result.getSource().getSystemId(),
+                        result.getSource().getSystemId().endsWith(".xml"));
+                count++;
+            }
+            assertEquals("Unexpected number of results.", 5, count);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     void writeResult(Result result, OutputStream out)
             throws TransformerConfigurationException, TransformerException, IOException {
         Transformer idTransformer = TransformerFactory.newInstance().newTransformer();
@@ -0,0 +1,142 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.xml.sax.SAXParseException;
+
+public class VerifyValidationErrorHandler {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void retainAllErrorsByDefault() {
+        ValidationErrorHandler iut = new ValidationErrorHandler();
+        iut.error(new SAXParseException("Invalid content.", null, null, 12, 7));
+        iut.warning(new SAXParseException("Deprecated element.", null, null, 3, 1));
+        iut.addError(ErrorSeverity.CRITICAL, "Terminated.", "Details", null);
+        assertTrue("Expected errors", iut.errorsDetected());
+        assertEquals("Unexpected number of errors", 3, iut.getErrorCount());
+        List<ValidationError> errors = iut.getErrors();
+        ValidationError first = errors.get(0);
+        assertEquals("Unexpected severity", ErrorSeverity.ERROR, first.getSeverity());
+        assertEquals("Unexpected message", "Invalid content.", first.getMessage());
+        assertEquals("Unexpected line number", 12, first.getLineNumber());
+        assertEquals("Unexpected column number", 7, first.getColumnNumber());
+        assertNull("Unexpected pointer", first.getPointer());
+        assertEquals("Unexpected diagnostics", "Details", errors.get(2).getDiagnostics());
+        assertFalse("Unexpected location", errors.get(2).toXml().contains("<location>"));
+    }
+
+    @Test
+    public void limitErrors() {
+        ValidationErrorHandler iut = new ValidationErrorHandler();
+        iut.setMaxErrors(5);
+        for (int i = 1; i <= 100; i++) {
+            iut.error(new SAXParseException("Error " + i, null, null, i, 1));
+        }
+        assertEquals("Unexpected number of errors", 5, iut.getErrorCount());
+        assertEquals("Unexpected total number of errors", 100, iut.getTotalErrorCount());
+        assertEquals("Unexpected number of discarded errors", 95, iut.getDiscardedErrorCount());
+        assertEquals("Unexpected line number", 5, iut.getErrors().get(4).getLineNumber());
+    }
+
+    @Test
+    public void limitErrorsPerMessage() {
+        ValidationErrorHandler iut = new ValidationErrorHandler();
+        iut.setMaxErrorsPerMessage(2);
+        for (int i = 1; i <= 10; i++) {
+            iut.error(new SAXParseException("Invalid content.", null, null, i, 1));
+            iut.error(new SAXParseException("Missing attribute.", null, null, i, 2));
+        }
+        iut.fatalError(new SAXParseException("Not well-formed.", null, null, 11, 1));
+        assertEquals("Unexpected number of errors", 5, iut.getErrorCount());
+        assertEquals("Unexpected number of errors", 20, iut.getErrorCount(ErrorSeverity.ERROR));
+        assertEquals("Unexpected number of critical errors", 1, iut.getErrorCount(ErrorSeverity.CRITICAL));
+        ValidationError last = iut.getErrors().get(4);
+        assertEquals("Unexpected message", "Not well-formed.", last.getMessage());
+        assertSame("Expected shared message", iut.getErrors().get(0).getMessage(),
+                iut.getErrors().get(2).getMessage());
+    }
+
+    @Test
+    public void discardErrorsBelowThreshold() {
+        ValidationErrorHandler iut = new ValidationErrorHandler();
+        iut.setSeverityThreshold(ErrorSeverity.ERROR);
+        iut.warning(new SAXParseException("Deprecated element.", null, null, 3, 1));
+        iut.warning(new SAXParseException("Deprecated element.", null, null, 4, 1));
+        iut.error(new SAXParseException("Invalid content.", null, null, 5, 1));
+        assertEquals("Unexpected number of errors", 1, iut.getErrorCount());
+        assertEquals("Unexpected number of warnings", 2, iut.getErrorCount(ErrorSeverity.WARNING));
+        assertTrue("Expected errors", iut.errorsDetected());
+        assertEquals("Unexpected severity", ErrorSeverity.ERROR, iut.iterator().next().getSeverity());
+    }
+
+    @Test
+    public void resetClearsTotals() {
+        ValidationErrorHandler iut = new ValidationErrorHandler();
+        iut.setMaxErrors(1);
+        iut.error(new SAXParseException("Invalid content.", null, null, 1, 1));
+        iut.error(new SAXParseException("Invalid content.", null, null, 2, 1));
+        iut.reset();
+        assertFalse("Unexpected errors", iut.errorsDetected());
+        assertEquals("Unexpected total number of errors", 0, iut.getTotalErrorCount());
+        iut.error(new SAXParseException("Invalid content.", null, null, 3, 1));
+        assertEquals("Unexpected number of errors", 1, iut.getErrorCount());
+    }
+
+    @Test
+    public void copyHandler() {
+        ValidationErrorHandler handler = new ValidationErrorHandler();
+        handler.setMaxErrors(2);
+        for (int i = 1; i <= 5; i++) {
+            handler.error(new SAXParseException("Error " + i, null, null, i, 1));
+        }
+        ValidationErrorHandler iut = new ValidationErrorHandler(handler);
+        assertEquals("Unexpected number of errors", 2, iut.getErrorCount());
+        assertEquals("Unexpected total number of errors", 5, iut.getTotalErrorCount());
+        iut.error(new SAXParseException("Error 6", null, null, 6, 1));
+        assertEquals("Unexpected number of errors", 2, iut.getErrorCount());
+        assertEquals("Unexpected total number of errors", 5, handler.getTotalErrorCount());
+    }
+
+    @Test
+    public void mergeHandlerCarriesTotals() {
+        ValidationErrorHandler handler = new ValidationErrorHandler();
+        handler.setSeverityThreshold(ErrorSeverity.ERROR);
+        handler.warning(new SAXParseException("Deprecated element.", null, null, 2, 1));
+        handler.error(new SAXParseException("Invalid content.", null, null, 3, 1));
+        handler.addError(ErrorSeverity.CRITICAL, "Terminated.", null);
+        ValidationErrorHandler iut = new ValidationErrorHandler();
+        iut.error(new SAXParseException("Missing attribute.", null, null, 1, 1));
+        iut.addErrors(handler);
+        assertEquals("Unexpected number of errors", 3, iut.getErrorCount());
+        assertEquals("Unexpected number of warnings", 1, iut.getErrorCount(ErrorSeverity.WARNING));
+        assertEquals("Unexpected number of errors", 2, iut.getErrorCount(ErrorSeverity.ERROR));
+        assertEquals("Unexpected number of discarded errors", 1, iut.getDiscardedErrorCount());
+        assertEquals("Unexpected line number", 3, iut.getErrors().get(1).getLineNumber());
+        assertFalse("Unexpected location", iut.getErrors().get(2).toXml().contains("<location>"));
+    }
+
+    @Test
+    public void errorListIsModifiableCopy() {
+        ValidationErrorHandler iut = new ValidationErrorHandler();
+        iut.error(new SAXParseException("Invalid content.", null, null, 1, 1));
+        List<ValidationError> errors = iut.getErrors();
+        errors.add(errors.get(0));
+        errors.clear();
+        assertEquals("Unexpected number of errors", 1, iut.getErrors().size());
+    }
+
+    @Test
+    public void rejectInvalidLimit() {
+        ValidationErrorHandler iut = new ValidationErrorHandler();
+        thrown.expect(IllegalArgumentException.class);
+        iut.setMaxErrors(0);
+    }
+}
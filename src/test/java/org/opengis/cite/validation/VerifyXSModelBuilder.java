@@ -5,6 +5,8 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.validation.Schema;
@@ -52,4 +54,31 @@ public class VerifyXSModelBuilder {
         assertNotNull("Element decl not found: comment",
                 model.getElementDeclaration("comment", NS_URI));
     }
+
+    @Test
+    public void buildMergedModelFromSchemaSet() throws Exception {
+        String NS_URI = "http://www.example.com/IPO";
+        String FEATURES_NS = "http://www.example.net/features";
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
+        Schema schema = xsdCompiler.compileXmlSchema(URI.create(NS_URI),
+                getClass().getResource("/xsd/features.xsd").toURI());
+        XSModel model = XSModelBuilder.buildXMLSchemaModel(schema, Arrays.asList(NS_URI, FEATURES_NS));
+        // XML Schema namespace and both target namespaces
+        assertEquals("Unexpected number of namespaces", 3, model.getNamespaces().size());
+        assertNotNull("Element decl not found: comment", model.getElementDeclaration("comment", NS_URI));
+        assertNotNull("Element decl not found: School", model.getElementDeclaration("School", FEATURES_NS));
+        assertSame("Expected cached model", model,
+                XSModelBuilder.buildXMLSchemaModel(schema, Arrays.asList(FEATURES_NS, NS_URI)));
+        assertSame("Expected cached model", model, XSModelBuilder.buildXMLSchemaModel(schema));
+        XSModel ipoModel = XSModelBuilder.buildXMLSchemaModel(schema, Collections.singleton(NS_URI));
+        assertNull("Unexpected element decl: School", ipoModel.getElementDeclaration("School", FEATURES_NS));
+    }
+
+    @Test
+    public void buildMergedModelWithoutNamespaces() throws SAXException, IOException {
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
+        Schema schema = xsdCompiler.compileXmlSchema(URI.create("http://www.example.com/IPO"));
+        thrown.expect(IllegalArgumentException.class);
+        XSModelBuilder.buildXMLSchemaModel(schema, Collections.<String> emptySet());
+    }
 }
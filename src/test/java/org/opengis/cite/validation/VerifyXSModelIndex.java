@@ -0,0 +1,140 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.apache.xerces.xs.XSElementDeclaration;
+import org.apache.xerces.xs.XSObject;
+import org.apache.xerces.xs.XSTypeDefinition;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class VerifyXSModelIndex {
+
+    private static final String IPO_NS = "http://www.example.com/IPO";
+    private static final String FEATURES_NS = "http://www.example.net/features";
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+    private static URL entityCatalog;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        entityCatalog = VerifyXSModelIndex.class.getResource("/entity-catalog.xml");
+    }
+
+    @Test
+    public void indexIsBuiltOncePerSchema() throws Exception {
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
+        Schema schema = xsdCompiler.compileXmlSchema(URI.create(IPO_NS));
+        XSModelIndex index = XSModelIndex.getIndex(schema);
+        assertSame("Expected cached index", index, XSModelIndex.getIndex(schema));
+        assertSame("Expected cached model", index.getModel(IPO_NS),
+                XSModelBuilder.buildXMLSchemaModel(schema, IPO_NS));
+        assertNull("Unexpected model", index.getModel("http://www.example.net/unknown"));
+    }
+
+    @Test
+    public void buildIndexConcurrently() throws Exception {
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
+        final Schema schema = xsdCompiler.compileXmlSchema(URI.create(IPO_NS));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<XSModelIndex>> futures = new ArrayList<Future<XSModelIndex>>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<XSModelIndex>() {
+                    @Override
+                    public XSModelIndex call() {
+                        return XSModelIndex.getIndex(schema);
+                    }
+                }));
+            }
+            for (Future<XSModelIndex> future : futures) {
+                assertSame("Expected a single index", futures.get(0).get(), future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void lookupElementAndType() throws Exception {
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
+        Schema schema = xsdCompiler.compileXmlSchema(URI.create(IPO_NS));
+        XSModelIndex index = XSModelIndex.getIndex(schema);
+        XSElementDeclaration comment = index.getElementDeclaration(new QName(IPO_NS, "comment"));
+        assertNotNull("Element decl not found: comment", comment);
+        XSTypeDefinition address = index.getTypeDefinition(new QName(IPO_NS, "Address"));
+        assertNotNull("Type def not found: Address", address);
+        assertNotNull("Type def not found: xs:string",
+                index.getTypeDefinition(new QName(XMLConstants.W3C_XML_SCHEMA_NS_URI, "string")));
+    }
+
+    @Test
+    public void findDerivedTypes() throws Exception {
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
+        Schema schema = xsdCompiler.compileXmlSchema(URI.create(IPO_NS));
+        XSModelIndex index = XSModelIndex.getIndex(schema);
+        List<XSTypeDefinition> derivedTypes = index.getDerivedTypes(new QName(IPO_NS, "Address"));
+        Set<String> names = names(derivedTypes);
+        assertEquals("Unexpected number of derived types", 2, names.size());
+        assertTrue("Expected USAddress", names.contains("USAddress"));
+        assertTrue("Expected UKAddress", names.contains("UKAddress"));
+    }
+
+    @Test
+    public void findSubstitutionGroupMembers() throws Exception {
+        Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+                .newSchema(getClass().getResource("/xsd/features.xsd"));
+        XSModelIndex index = XSModelIndex.getIndex(schema);
+        Set<String> members = names(index.getSubstitutionGroupMembers(new QName(FEATURES_NS, "AbstractFeature")));
+        assertEquals("Unexpected number of substitution group members", 3, members.size());
+        assertTrue("Expected School", members.contains("School"));
+        assertEquals("Unexpected number of substitution group members", 1,
+                index.getSubstitutionGroupMembers(new QName(FEATURES_NS, "Building")).size());
+        assertTrue("Expected no members",
+                index.getSubstitutionGroupMembers(new QName(FEATURES_NS, "Road")).isEmpty());
+        Set<String> featureTypes = names(index.getDerivedTypes(new QName(FEATURES_NS, "AbstractFeatureType")));
+        assertEquals("Unexpected number of derived types", 3, featureTypes.size());
+        assertTrue("Expected SchoolType", featureTypes.contains("SchoolType"));
+    }
+
+    @Test
+    public void indexIsUnmodifiable() throws Exception {
+        Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+                .newSchema(getClass().getResource("/xsd/features.xsd"));
+        XSModelIndex index = XSModelIndex.getIndex(schema);
+        thrown.expect(UnsupportedOperationException.class);
+        index.getDerivedTypes(new QName(FEATURES_NS, "BuildingType")).clear();
+    }
+
+    @Test
+    public void rejectNonXercesSchema() {
+        thrown.expect(IllegalArgumentException.class);
+        XSModelIndex.getIndex(null);
+    }
+
+    private static Set<String> names(List<? extends XSObject> components) {
+        Set<String> names = new HashSet<String>();
+        for (XSObject component : components) {
+            names.add(component.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,139 @@
+package org.opengis.cite.validation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.validation.Schema;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class VerifyXmlSchemaCache {
+
+    private static final String TEST_RESOURCES = "src/test/resources/";
+    private static URL entityCatalog;
+
+    public VerifyXmlSchemaCache() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        entityCatalog = VerifyXmlSchemaCache.class.getResource("/entity-catalog.xml");
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void createWithInvalidSize() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Maximum size must be a positive integer");
+        new XmlSchemaCache(0);
+    }
+
+    @Test
+    public void memoizeCompiledSchema() throws Exception {
+        XmlSchemaCache cache = new XmlSchemaCache(4);
+        URI schemaURI = new File(TEST_RESOURCES + "xsd/shiporder-invalid.xsd").toURI();
+        XmlSchemaCompiler iut = new XmlSchemaCompiler(entityCatalog);
+        iut.setSchemaCache(cache);
+        Schema schema = iut.compileXmlSchema(schemaURI);
+        assertEquals("Unexpected number of compilation errors", 2, iut.getErrorHandler().getErrorCount());
+        XmlSchemaCompiler otherCompiler = new XmlSchemaCompiler(entityCatalog);
+        otherCompiler.setSchemaCache(cache);
+        assertSame("Expected cached schema.", schema, otherCompiler.compileXmlSchema(schemaURI));
+        assertEquals("Unexpected number of compilation errors", 2, otherCompiler.getErrorHandler().getErrorCount());
+        assertEquals("Unexpected hit count.", 1, cache.getHitCount());
+        assertEquals("Unexpected miss count.", 1, cache.getMissCount());
+        assertTrue("Expected compile time.", cache.getTotalCompileTime(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    public void cachedSchemaReportsExactTotals() throws Exception {
+        XmlSchemaCache cache = new XmlSchemaCache(4);
+        URI schemaURI = new File(TEST_RESOURCES + "xsd/shiporder-invalid.xsd").toURI();
+        XmlSchemaCompiler iut = new XmlSchemaCompiler(entityCatalog);
+        iut.setSchemaCache(cache);
+        iut.getErrorHandler().setMaxErrors(1);
+        iut.compileXmlSchema(schemaURI);
+        ValidationErrorHandler fresh = iut.getErrorHandler();
+        assertEquals("Unexpected number of compilation errors", 1, fresh.getErrorCount());
+        assertEquals("Unexpected number of discarded errors", 1, fresh.getDiscardedErrorCount());
+        XmlSchemaCompiler otherCompiler = new XmlSchemaCompiler(entityCatalog);
+        otherCompiler.setSchemaCache(cache);
+        otherCompiler.compileXmlSchema(schemaURI);
+        ValidationErrorHandler hit = otherCompiler.getErrorHandler();
+        assertEquals("Unexpected hit count.", 1, cache.getHitCount());
+        assertEquals("Unexpected total number of errors", fresh.getTotalErrorCount(), hit.getTotalErrorCount());
+        assertEquals("Unexpected number of discarded errors", 1, hit.getDiscardedErrorCount());
+    }
+
+    @Test
+    public void schemaInCatalogSharesEntry() throws Exception {
+        XmlSchemaCache cache = new XmlSchemaCache(4);
+        XmlSchemaCompiler iut = new XmlSchemaCompiler(entityCatalog);
+        iut.setSchemaCache(cache);
+        Schema schema = iut.compileXmlSchema(URI.create("http://www.example.com/IPO"));
+        assertSame("Expected cached schema.", schema,
+                iut.compileXmlSchema(getClass().getResource("/xsd/ipo.xsd").toURI()));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception {
+        XmlSchemaCache cache = new XmlSchemaCache(2);
+        XmlSchemaCompiler iut = new XmlSchemaCompiler(entityCatalog);
+        iut.setSchemaCache(cache);
+        URI ipo = new File(TEST_RESOURCES + "xsd/ipo.xsd").toURI();
+        URI shipOrder = new File(TEST_RESOURCES + "xsd/shiporder.xsd").toURI();
+        URI xlink = new File(TEST_RESOURCES + "xsd/xlink.xsd").toURI();
+        Schema ipoSchema = iut.compileXmlSchema(ipo);
+        iut.compileXmlSchema(shipOrder);
+        iut.compileXmlSchema(ipo);
+        iut.compileXmlSchema(xlink);
+        assertEquals("Unexpected eviction count.", 1, cache.getEvictionCount());
+        assertEquals("Unexpected cache size.", 2, cache.size());
+        assertSame("Expected cached schema.", ipoSchema, iut.compileXmlSchema(ipo));
+        cache.invalidate(ipo);
+        assertEquals("Unexpected cache size.", 1, cache.size());
+        assertNotSame("Expected new schema.", ipoSchema, iut.compileXmlSchema(ipo));
+    }
+
+    @Test
+    public void compileOnceConcurrently() throws Exception {
+        final XmlSchemaCache cache = new XmlSchemaCache(4);
+        final URI schemaURI = new File(TEST_RESOURCES + "xsd/ipo.xsd").toURI();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Schema>> futures = new ArrayList<Future<Schema>>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Schema>() {
+                    @Override
+                    public Schema call() throws Exception {
+                        XmlSchemaCompiler compiler = new XmlSchemaCompiler(entityCatalog);
+                        compiler.setSchemaCache(cache);
+                        return compiler.compileXmlSchema(schemaURI);
+                    }
+                }));
+            }
+            Schema schema = futures.get(0).get();
+            for (Future<Schema> future : futures) {
+                assertSame("Expected shared schema.", schema, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("Unexpected miss count.", 1, cache.getMissCount());
+    }
+}
@@ -4,13 +4,32 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.apache.xerces.impl.xs.XSDDescription;
+import org.apache.xerces.jaxp.validation.XSGrammarPoolContainer;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -21,6 +40,10 @@ import org.junit.rules.ExpectedException;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 public class VerifyXmlSchemaCompiler {
 
     @Rule
@@ -28,6 +51,7 @@ public class VerifyXmlSchemaCompiler {
     private static final String TEST_RESOURCES = "src/test/resources/";
     private static DocumentBuilder docBuilder;
     private static URL entityCatalog;
+    private static final String XLINK_NS = "http://www.w3.org/1999/xlink";
 
     public VerifyXmlSchemaCompiler() {
     }
@@ -153,4 +177,190 @@ public class VerifyXmlSchemaCompiler {
         ValidationErrorHandler err = xsdCompiler.getErrorHandler();
         assertFalse("Compilation errors were reported.", err.errorsDetected());
     }
+
+    @Test
+    public void reuseGrammarsInSharedPool() throws SAXException, IOException {
+        XMLGrammarPoolImpl grammarPool = new XMLGrammarPoolImpl();
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog,
+                grammarPool);
+        xsdCompiler.compileXmlSchema(URI
+                .create("http://www.w3.org/1999/xlink.xsd"));
+        assertFalse("Compilation errors were reported.", xsdCompiler
+                .getErrorHandler().errorsDetected());
+        xsdCompiler.lockGrammarPool();
+        Grammar xlinkGrammar = grammarPool.retrieveGrammar(schemaDescription(XLINK_NS));
+        assertNotNull("Expected xlink grammar in pool.", xlinkGrammar);
+        XmlSchemaCompiler iut = new XmlSchemaCompiler(entityCatalog,
+                grammarPool);
+        Schema schema = iut.compileXmlSchema(new File(TEST_RESOURCES
+                + "xsd/links.xsd").toURI());
+        assertFalse("Compilation errors were reported.", iut.getErrorHandler()
+                .errorsDetected());
+        XMLGrammarPool schemaPool = ((XSGrammarPoolContainer) schema)
+                .getGrammarPool();
+        assertSame("Expected shared xlink grammar.", xlinkGrammar,
+                schemaPool.retrieveGrammar(schemaDescription(XLINK_NS)));
+        assertNull("Locked pool should not contain new grammar.",
+                grammarPool.retrieveGrammar(schemaDescription("http://www.example.net/links")));
+        Validator validator = schema.newValidator();
+        validator.validate(new StreamSource(new StringReader(
+                "<links xmlns='http://www.example.net/links'"
+                        + " xmlns:xlink='http://www.w3.org/1999/xlink'>"
+                        + "<link xlink:href='http://www.example.org/'/></links>")));
+    }
+
+    @Test
+    public void malformedXMLSchemaUsingPool() throws SAXException, IOException {
+        thrown.expect(SAXException.class);
+        thrown.expectMessage("must be terminated by the matching end-tag");
+        File schemaFile = new File(TEST_RESOURCES + "xsd/malformed.xsd");
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog,
+                new XMLGrammarPoolImpl());
+        xsdCompiler.compileXmlSchema(schemaFile.toURI());
+    }
+
+    @Test
+    public void invalidSchemaUsingPool() throws SAXException, IOException {
+        File schemaFile = new File(TEST_RESOURCES + "xsd/shiporder-invalid.xsd");
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog,
+                new XMLGrammarPoolImpl());
+        Schema schema = xsdCompiler.compileXmlSchema(schemaFile.toURI());
+        assertNotNull("Schema is null", schema);
+        assertEquals("Unexpected number of compilation errors", 2,
+                xsdCompiler.getErrorHandler().getErrorCount());
+    }
+
+    @Test
+    public void compileRemoteSchemaPreservesLineNumbers() throws Exception {
+        File schemaFile = new File(TEST_RESOURCES + "xsd/shiporder-invalid.xsd");
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
+        xsdCompiler.compileXmlSchema(schemaFile.toURI());
+        List<ValidationError> expected = xsdCompiler.getErrorHandler()
+                .getErrors();
+        HttpServer server = startServer(
+                Files.readAllBytes(schemaFile.toPath()), 0);
+        try {
+            xsdCompiler.compileXmlSchema(serverURI(server,
+                    "/shiporder-invalid.xsd"));
+        } finally {
+            server.stop(0);
+        }
+        List<ValidationError> errors = xsdCompiler.getErrorHandler()
+                .getErrors();
+        assertEquals("Unexpected number of compilation errors",
+                expected.size(), errors.size());
+        for (int i = 0; i < errors.size(); i++) {
+            assertEquals("Unexpected line number.", expected.get(i)
+                    .getLineNumber(), errors.get(i).getLineNumber());
+        }
+    }
+
+    @Test
+    public void dereferenceURIPreservesBytes() throws Exception {
+        byte[] content = ("<?xml version='1.0' encoding='ISO-8859-1'?>\r\n"
+                + "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>\r\n"
+                + "<!-- Gr\u00fc\u00dfe -->\n</xs:schema>\n")
+                .getBytes("ISO-8859-1");
+        HttpServer server = startServer(content, 0);
+        File schemaFile;
+        try {
+            XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
+            schemaFile = xsdCompiler.dereferenceURI(serverURI(server,
+                    "/latin1.xsd"));
+        } finally {
+            server.stop(0);
+        }
+        assertArrayEquals("Unexpected content.", content,
+                Files.readAllBytes(schemaFile.toPath()));
+        schemaFile.delete();
+    }
+
+    @Test
+    public void readTimeoutExpires() throws Exception {
+        thrown.expect(SocketTimeoutException.class);
+        HttpServer server = startServer(new byte[0], 2000);
+        try {
+            XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
+            xsdCompiler.setTimeouts(1000, 200);
+            xsdCompiler.compileXmlSchema(serverURI(server, "/slow.xsd"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void compileSchemaSetsConcurrently() {
+        Map<String, List<URI>> schemaSets = new LinkedHashMap<String, List<URI>>();
+        schemaSets.put("ipo", Arrays.asList(new File(TEST_RESOURCES
+                + "xsd/ipo.xsd").toURI()));
+        schemaSets.put("invalid", Arrays.asList(new File(TEST_RESOURCES
+                + "xsd/shiporder-invalid.xsd").toURI()));
+        schemaSets.put("malformed", Arrays.asList(new File(TEST_RESOURCES
+                + "xsd/malformed.xsd").toURI()));
+        schemaSets.put("unavailable",
+                Arrays.asList(URI.create("urn:x-test:unavailable")));
+        schemaSets.put("shiporder", Arrays.asList(URI
+                .create("http://www.example.net/shiporder.xsd")));
+        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog,
+                new XMLGrammarPoolImpl());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Map<String, CompiledXmlSchema> results;
+        try {
+            results = xsdCompiler.compileXmlSchemas(schemaSets, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals("Unexpected schema sets.", new ArrayList<String>(
+                schemaSets.keySet()), new ArrayList<String>(results.keySet()));
+        assertNotNull("Schema is null", results.get("ipo").getSchema());
+        assertFalse("Compilation errors were reported.", results.get("ipo")
+                .getErrorHandler().errorsDetected());
+        assertEquals("Unexpected number of compilation errors", 2, results
+                .get("invalid").getErrorHandler().getErrorCount());
+        assertNull("Expected null schema.", results.get("malformed")
+                .getSchema());
+        assertEquals("Unexpected severity.", ErrorSeverity.CRITICAL, results
+                .get("malformed").getErrorHandler().getErrors().get(0)
+                .getSeverity());
+        assertNull("Expected null schema.", results.get("unavailable")
+                .getSchema());
+        assertEquals("Unexpected number of compilation errors", 1, results
+                .get("unavailable").getErrorHandler().getErrorCount());
+        assertNotNull("Schema is null", results.get("shiporder").getSchema());
+        assertFalse("Compiler error handler was modified.", xsdCompiler
+                .getErrorHandler().errorsDetected());
+    }
+
+    private static HttpServer startServer(final byte[] content,
+            final long delay) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(
+                "localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static URI serverURI(HttpServer server, String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort()
+                + path);
+    }
+
+    private static XSDDescription schemaDescription(String namespace) {
+        XSDDescription desc = new XSDDescription();
+        desc.setNamespace(namespace);
+        return desc;
+    }
 }